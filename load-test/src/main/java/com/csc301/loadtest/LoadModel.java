@@ -0,0 +1,69 @@
+package com.csc301.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * What the load test knows about the data: the songs, the users and which songs each user liked,
+ * so unlikes mostly pick songs that are in the playlist
+ */
+public class LoadModel {
+
+  private final List<String> songIds;
+  private final List<String> userNames;
+  private final Map<String, List<String>> likedSongs = new ConcurrentHashMap<>();
+
+  public LoadModel(List<String> songIds, List<String> userNames) {
+    this.songIds = Collections.unmodifiableList(new ArrayList<>(songIds));
+    this.userNames = Collections.unmodifiableList(new ArrayList<>(userNames));
+    for (String userName : userNames) {
+      likedSongs.put(userName, new ArrayList<>());
+    }
+  }
+
+  public List<String> getSongIds() {
+    return songIds;
+  }
+
+  public List<String> getUserNames() {
+    return userNames;
+  }
+
+  public String randomSongId() {
+    return songIds.get(ThreadLocalRandom.current().nextInt(songIds.size()));
+  }
+
+  public String randomUserName() {
+    return userNames.get(ThreadLocalRandom.current().nextInt(userNames.size()));
+  }
+
+  public void liked(String userName, String songId) {
+    List<String> songs = likedSongs.get(userName);
+    synchronized (songs) {
+      songs.add(songId);
+    }
+  }
+
+  /**
+   * Removes and returns a random song the user liked, or a random song if they have none left
+   */
+  public String takeLikedSongId(String userName) {
+    List<String> songs = likedSongs.get(userName);
+    synchronized (songs) {
+      if (songs.isEmpty()) {
+        return randomSongId();
+      }
+      int last = songs.size() - 1;
+      int index = ThreadLocalRandom.current().nextInt(songs.size());
+      // swap with the last so the removal doesn't shift the list
+      String songId = songs.get(index);
+      songs.set(index, songs.get(last));
+      songs.remove(last);
+      return songId;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.csc301.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Starts both microservices against stand-in databases, seeds them, replays a mix of requests at
+ * a fixed rate and prints the throughput and latency of each route. The settings are in
+ * load-test.properties and can be overridden with --key=value arguments
+ */
+public class LoadTest {
+
+  public static void main(String[] args) throws Exception {
+    LoadTestConfig config = new LoadTestConfig(args);
+    int maxInFlight = config.getInt("load.maxInFlight");
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(maxInFlight);
+    dispatcher.setMaxRequestsPerHost(maxInFlight);
+    OkHttpClient client = new OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        .connectionPool(new ConnectionPool(maxInFlight, 5, TimeUnit.MINUTES))
+        .readTimeout(60, TimeUnit.SECONDS)
+        .build();
+
+    int songPort = config.getInt("song.port");
+    int profilePort = config.getInt("profile.port");
+    try (StandInDatabases databases = new StandInDatabases()) {
+      databases.start();
+      Seeder seeder = new Seeder(config, client);
+      List<String> songIds = seeder.seedSongs(databases.getMongoPort());
+
+      List<String> songArgs = new ArrayList<>(Arrays.asList(
+          "--spring.data.mongodb.port=" + databases.getMongoPort(),
+          "--interservice.profileService.url=http://localhost:" + profilePort,
+          "--faults.latency.delayMs=" + config.getLong("faults.song.delayMs"),
+          "--faults.latency.jitterMs=" + config.getLong("faults.song.jitterMs")));
+      // Spring doesn't take an empty --key= argument
+      if (!config.getString("faults.song.paths").isEmpty()) {
+        songArgs.add("--faults.latency.paths=" + config.getString("faults.song.paths"));
+      }
+      songArgs.addAll(splitArgs(config.getString("song.args")));
+      List<String> profileArgs = new ArrayList<>(Arrays.asList(
+          "--interservice.songService.url=http://localhost:" + songPort,
+          "--neo4j.uri=" + databases.getNeo4jUri()));
+      profileArgs.addAll(splitArgs(config.getString("profile.args")));
+
+      try (ServiceProcess song = new ServiceProcess("song-microservice",
+          config.getString("song.jar"), songPort, songArgs);
+          ServiceProcess profile = new ServiceProcess("profile-microservice",
+              config.getString("profile.jar"), profilePort, profileArgs)) {
+        song.start(client);
+        profile.start(client);
+        LoadModel model = seeder.seedProfiles(profile.getUrl(), songIds);
+
+        int rate = config.getInt("load.rate");
+        int warmupSeconds = config.getInt("load.warmupSeconds");
+        int durationSeconds = config.getInt("load.durationSeconds");
+        System.out.println("replaying " + config.getString("load.mix") + " at " + rate
+            + " requests/s for " + warmupSeconds + "s of warmup and " + durationSeconds + "s");
+        RouteStats stats = new Replayer(client, model, song.getUrl(), profile.getUrl())
+            .run(new Route.Mix(config.getString("load.mix")), rate, warmupSeconds,
+                durationSeconds);
+        stats.print(durationSeconds);
+      }
+    } finally {
+      client.dispatcher().executorService().shutdown();
+      client.connectionPool().evictAll();
+    }
+  }
+
+  private static List<String> splitArgs(String args) {
+    List<String> split = new ArrayList<>();
+    for (String arg : args.split("\\s+")) {
+      if (!arg.isEmpty()) {
+        split.add(arg);
+      }
+    }
+    return split;
+  }
+}
@@ -0,0 +1,45 @@
+package com.csc301.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+
+/**
+ * The settings of a load test run: load-test.properties, overridden by --key=value arguments
+ */
+public class LoadTestConfig {
+
+  private final Properties properties = new Properties();
+
+  public LoadTestConfig(String[] args) {
+    try (InputStream defaults = LoadTestConfig.class.getResourceAsStream("/load-test.properties")) {
+      properties.load(defaults);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Expected --key=value but got " + arg);
+      }
+      int equals = arg.indexOf('=');
+      properties.setProperty(arg.substring(2, equals), arg.substring(equals + 1));
+    }
+  }
+
+  public String getString(String key) {
+    String value = properties.getProperty(key);
+    if (value == null) {
+      throw new IllegalArgumentException("Missing setting " + key);
+    }
+    return value.trim();
+  }
+
+  public int getInt(String key) {
+    return Integer.parseInt(getString(key));
+  }
+
+  public long getLong(String key) {
+    return Long.parseLong(getString(key));
+  }
+}
@@ -0,0 +1,136 @@
+package com.csc301.loadtest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Sends the mix of requests at a fixed rate. Requests go out on schedule even while earlier ones
+ * are still waiting for an answer, like real users would send them
+ */
+public class Replayer {
+
+  private static final RequestBody EMPTY_BODY = RequestBody.create(null, "");
+  private static final long DRAIN_TIMEOUT_MS = 60000;
+
+  private final OkHttpClient client;
+  private final LoadModel model;
+  private final String songUrl;
+  private final String profileUrl;
+  private final RouteStats stats = new RouteStats();
+
+  public Replayer(OkHttpClient client, LoadModel model, String songUrl, String profileUrl) {
+    this.client = client;
+    this.model = model;
+    this.songUrl = songUrl;
+    this.profileUrl = profileUrl;
+  }
+
+  /**
+   * Returns true if the API answered with status OK
+   */
+  static boolean isOk(Response response) throws IOException {
+    ResponseBody body = response.body();
+    return response.isSuccessful() && body != null
+        && body.string().contains("\"status\":\"OK\"");
+  }
+
+  /**
+   * Sends requests for warmupSeconds and then durationSeconds, recording only the latter, and
+   * waits for the answers
+   *
+   * @param mix             which routes to call and how often
+   * @param rate            requests per second
+   * @param warmupSeconds   how long to send requests before recording them
+   * @param durationSeconds how long to send the recorded requests for
+   * @return the latency and failures of the recorded requests
+   */
+  public RouteStats run(Route.Mix mix, int rate, int warmupSeconds, int durationSeconds)
+      throws InterruptedException {
+    long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    long start = System.nanoTime();
+    long recordFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    long end = recordFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+    for (long i = 0; ; i++) {
+      long scheduled = start + i * periodNanos;
+      if (scheduled >= end) {
+        break;
+      }
+      long wait = scheduled - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      send(mix.pick(), scheduled, scheduled >= recordFrom);
+    }
+    long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+    while (client.dispatcher().runningCallsCount() + client.dispatcher().queuedCallsCount() > 0
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    return stats;
+  }
+
+  private void send(Route route, long scheduled, boolean recorded) {
+    String userName = model.randomUserName();
+    Request.Builder request = new Request.Builder();
+    Consumer<Boolean> onAnswer = ok -> {
+    };
+    switch (route) {
+      case LIKE_SONG: {
+        String songId = model.randomSongId();
+        request.url(profileUrl + "/likeSong/" + userName + "/" + songId).put(EMPTY_BODY);
+        onAnswer = ok -> {
+          if (ok) {
+            model.liked(userName, songId);
+          }
+        };
+        break;
+      }
+      case UNLIKE_SONG:
+        request.url(profileUrl + "/unlikeSong/" + userName + "/" + model.takeLikedSongId(userName))
+            .put(EMPTY_BODY);
+        break;
+      case FOLLOW_FRIEND:
+        request.url(profileUrl + "/followFriend/" + userName + "/" + model.randomUserName())
+            .put(EMPTY_BODY);
+        break;
+      case GET_ALL_FRIEND_FAVOURITE_SONG_TITLES:
+        request.url(profileUrl + "/getAllFriendFavouriteSongTitles/" + userName).get();
+        break;
+      case GET_SONG_BY_ID:
+        request.url(songUrl + "/getSongById/" + model.randomSongId()).get();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown route " + route);
+    }
+    Consumer<Boolean> answered = onAnswer;
+    client.newCall(request.build()).enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        if (recorded) {
+          stats.record(route, System.nanoTime() - scheduled, false);
+        }
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) throws IOException {
+        boolean ok;
+        try (Response answer = response) {
+          ok = isOk(answer);
+        }
+        if (recorded) {
+          stats.record(route, System.nanoTime() - scheduled, ok);
+        }
+        answered.accept(ok);
+      }
+    });
+  }
+}
@@ -0,0 +1,75 @@
+package com.csc301.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The requests the load test sends, named after the API they call
+ */
+public enum Route {
+  LIKE_SONG("likeSong"),
+  UNLIKE_SONG("unlikeSong"),
+  FOLLOW_FRIEND("followFriend"),
+  GET_ALL_FRIEND_FAVOURITE_SONG_TITLES("getAllFriendFavouriteSongTitles"),
+  GET_SONG_BY_ID("getSongById");
+
+  private final String apiName;
+
+  Route(String apiName) {
+    this.apiName = apiName;
+  }
+
+  public String getApiName() {
+    return apiName;
+  }
+
+  public static Route fromApiName(String apiName) {
+    for (Route route : values()) {
+      if (route.apiName.equals(apiName)) {
+        return route;
+      }
+    }
+    throw new IllegalArgumentException("Unknown route " + apiName);
+  }
+
+  /**
+   * Picks routes at random in proportion to their weights
+   */
+  public static class Mix {
+
+    private final List<Route> routes = new ArrayList<>();
+    private final List<Integer> cumulativeWeights = new ArrayList<>();
+    private int totalWeight;
+
+    /**
+     * @param mix the weight of each route as apiName:weight, separated by commas
+     */
+    public Mix(String mix) {
+      for (String entry : mix.split(",")) {
+        String[] parts = entry.trim().split(":");
+        if (parts.length != 2) {
+          throw new IllegalArgumentException("Expected apiName:weight but got " + entry);
+        }
+        int weight = Integer.parseInt(parts[1].trim());
+        if (weight > 0) {
+          totalWeight += weight;
+          routes.add(fromApiName(parts[0].trim()));
+          cumulativeWeights.add(totalWeight);
+        }
+      }
+      if (totalWeight == 0) {
+        throw new IllegalArgumentException("No route has a weight in " + mix);
+      }
+    }
+
+    public Route pick() {
+      int value = ThreadLocalRandom.current().nextInt(totalWeight);
+      int i = 0;
+      while (value >= cumulativeWeights.get(i)) {
+        i++;
+      }
+      return routes.get(i);
+    }
+  }
+}
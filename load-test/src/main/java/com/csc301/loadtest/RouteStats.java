@@ -0,0 +1,65 @@
+package com.csc301.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * The latency and outcome of the recorded requests of each route. A request's latency runs from
+ * when it was meant to be sent, not from when it was sent, so a slow service doesn't hide the
+ * requests that queued up behind it
+ */
+public class RouteStats {
+
+  private static final long HIGHEST_LATENCY_US = TimeUnit.MINUTES.toMicros(5);
+
+  private final Map<Route, Histogram> latencies = new EnumMap<>(Route.class);
+  private final Map<Route, LongAdder> failures = new EnumMap<>(Route.class);
+
+  public RouteStats() {
+    for (Route route : Route.values()) {
+      latencies.put(route, new ConcurrentHistogram(HIGHEST_LATENCY_US, 3));
+      failures.put(route, new LongAdder());
+    }
+  }
+
+  public void record(Route route, long latencyNanos, boolean ok) {
+    long latencyUs = Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_LATENCY_US);
+    latencies.get(route).recordValue(latencyUs);
+    if (!ok) {
+      failures.get(route).increment();
+    }
+  }
+
+  /**
+   * Prints a line per route with its throughput and latency percentiles
+   *
+   * @param seconds how long the recorded requests were sent for
+   */
+  public void print(double seconds) {
+    System.out.println(String.format("%-32s %8s %8s %10s %10s %10s %10s %10s", "route",
+        "requests", "failed", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+    Histogram all = new Histogram(HIGHEST_LATENCY_US, 3);
+    long allFailures = 0;
+    for (Route route : Route.values()) {
+      Histogram histogram = latencies.get(route);
+      if (histogram.getTotalCount() == 0) {
+        continue;
+      }
+      all.add(histogram);
+      allFailures += failures.get(route).sum();
+      printLine(route.getApiName(), histogram, failures.get(route).sum(), seconds);
+    }
+    printLine("all", all, allFailures, seconds);
+  }
+
+  private static void printLine(String name, Histogram histogram, long failed, double seconds) {
+    System.out.println(String.format("%-32s %8d %8d %10.1f %10.2f %10.2f %10.2f %10.2f", name,
+        histogram.getTotalCount(), failed, histogram.getTotalCount() / seconds,
+        histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+        histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0));
+  }
+}
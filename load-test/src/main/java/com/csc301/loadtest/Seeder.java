@@ -0,0 +1,178 @@
+package com.csc301.loadtest;
+
+import com.mongodb.MongoClient;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Fills the stand-in databases before the replay: the songs of MOCK_DATA.json and generated ones
+ * go straight into Mongo as import-songs-db.sh does, and the users, who they follow and what they
+ * like go through the Profile Microservice APIs
+ */
+public class Seeder {
+
+  /**
+   * The database and collection the Songs Microservice reads
+   */
+  private static final String SONG_DB = "csc301-test";
+  private static final String SONG_COLLECTION = "songs";
+
+  private static final int ATTEMPTS = 5;
+  private static final long RETRY_DELAY_MS = 200;
+
+  private static final MediaType JSON = MediaType.parse("application/json");
+  private static final RequestBody EMPTY_BODY = RequestBody.create(null, "");
+
+  private final LoadTestConfig config;
+  private final OkHttpClient client;
+
+  public Seeder(LoadTestConfig config, OkHttpClient client) {
+    this.config = config;
+    this.client = client;
+  }
+
+  /**
+   * Imports the songs, before the Songs Microservice starts
+   *
+   * @param mongoPort the port of the stand-in Mongo
+   * @return the ids of the songs
+   */
+  public List<String> seedSongs(int mongoPort) throws IOException {
+    String songsFile = new String(Files.readAllBytes(Paths.get(config.getString("seed.songsFile"))),
+        StandardCharsets.UTF_8);
+    // the file is a mongo shell array with ObjectId(...) ids, which Document.parse understands
+    List<Document> songs = new ArrayList<>((List<Document>) Document
+        .parse("{\"songs\": " + songsFile + "}").get("songs"));
+    int generatedSongs = config.getInt("seed.generatedSongs");
+    for (int i = 0; i < generatedSongs; i++) {
+      songs.add(new Document("_id", new ObjectId())
+          .append("songName", "Generated Song " + i)
+          .append("songArtistFullName", "Generated Artist " + (i % 100))
+          .append("songAlbum", "Generated Album " + (i % 500))
+          .append("songAmountFavourites", 0L));
+    }
+    MongoClient mongoClient = new MongoClient("localhost", mongoPort);
+    try {
+      mongoClient.getDatabase(SONG_DB).getCollection(SONG_COLLECTION).insertMany(songs);
+    } finally {
+      mongoClient.close();
+    }
+    List<String> songIds = new ArrayList<>();
+    for (Document song : songs) {
+      songIds.add(song.getObjectId("_id").toHexString());
+    }
+    System.out.println("seeded " + songIds.size() + " songs");
+    return songIds;
+  }
+
+  /**
+   * Creates the users, then has each follow and like random others and songs
+   *
+   * @param profileUrl where the Profile Microservice is running
+   * @param songIds    the songs that can be liked
+   * @return the model of the seeded data
+   */
+  public LoadModel seedProfiles(String profileUrl, List<String> songIds) throws Exception {
+    int users = config.getInt("seed.users");
+    int followsPerUser = Math.min(config.getInt("seed.followsPerUser"), users - 1);
+    int likesPerUser = Math.min(config.getInt("seed.likesPerUser"), songIds.size());
+    List<String> userNames = new ArrayList<>();
+    for (int i = 0; i < users; i++) {
+      userNames.add("user" + i);
+    }
+    LoadModel model = new LoadModel(songIds, userNames);
+
+    ExecutorService pool = Executors.newFixedThreadPool(config.getInt("seed.threads"));
+    AtomicInteger failures = new AtomicInteger();
+    try {
+      runAll(pool, userNames, userName -> {
+        HttpUrl url = HttpUrl.get(profileUrl + "/profile").newBuilder()
+            .addQueryParameter("userName", userName)
+            .addQueryParameter("fullName", "Load Test " + userName)
+            .addQueryParameter("password", "password").build();
+        send(new Request.Builder().url(url).post(EMPTY_BODY).build(), failures);
+      });
+      runAll(pool, userNames, userName -> {
+        List<String> others = new ArrayList<>(userNames);
+        others.remove(userName);
+        Collections.shuffle(others);
+        for (String friendUserName : others.subList(0, followsPerUser)) {
+          send(new Request.Builder()
+              .url(profileUrl + "/followFriend/" + userName + "/" + friendUserName)
+              .put(EMPTY_BODY).build(), failures);
+        }
+      });
+      runAll(pool, userNames, userName -> {
+        List<String> songs = new ArrayList<>(songIds);
+        Collections.shuffle(songs);
+        List<String> liked = songs.subList(0, likesPerUser);
+        String body = "[\"" + String.join("\",\"", liked) + "\"]";
+        if (send(new Request.Builder().url(profileUrl + "/likeSongs/" + userName)
+            .put(RequestBody.create(JSON, body)).build(), failures)) {
+          liked.forEach(songId -> model.liked(userName, songId));
+        }
+      });
+    } finally {
+      pool.shutdownNow();
+    }
+    System.out.println("seeded " + users + " users following " + followsPerUser
+        + " others and liking " + likesPerUser + " songs each, " + failures.get()
+        + " requests failed");
+    return model;
+  }
+
+  private interface UserTask {
+
+    void run(String userName) throws IOException, InterruptedException;
+  }
+
+  private static void runAll(ExecutorService pool, List<String> userNames, UserTask task)
+      throws Exception {
+    List<Future<?>> futures = new ArrayList<>();
+    for (String userName : userNames) {
+      futures.add(pool.submit(() -> {
+        task.run(userName);
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+  }
+
+  /**
+   * Sends the request, and again up to ATTEMPTS times while it doesn't answer OK. The Profile
+   * Microservice applies its schema after it reports being up, and concurrent writes to the same
+   * profiles can deadlock, both of which fail a request that works when retried
+   */
+  private boolean send(Request request, AtomicInteger failures)
+      throws IOException, InterruptedException {
+    for (int attempt = 1; attempt <= ATTEMPTS; attempt++) {
+      try (Response response = client.newCall(request).execute()) {
+        if (Replayer.isOk(response)) {
+          return true;
+        }
+      }
+      Thread.sleep(RETRY_DELAY_MS * attempt);
+    }
+    failures.incrementAndGet();
+    return false;
+  }
+}
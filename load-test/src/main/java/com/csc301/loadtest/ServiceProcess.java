@@ -0,0 +1,89 @@
+package com.csc301.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * One of the microservices, started from its jar in a JVM of its own. Its output goes to
+ * target/name.log
+ */
+public class ServiceProcess implements AutoCloseable {
+
+  private static final long STARTUP_TIMEOUT_MS = 120000;
+
+  private final String name;
+  private final int port;
+  private final List<String> command = new ArrayList<>();
+  private Process process;
+
+  /**
+   * Constructor for a service process
+   *
+   * @param name the name used in the log file and messages
+   * @param jar  the service's executable jar
+   * @param port the port the service listens on
+   * @param args the Spring arguments, e.g. --server.port=3001
+   */
+  public ServiceProcess(String name, String jar, int port, List<String> args) {
+    this.name = name;
+    this.port = port;
+    if (!new File(jar).isFile()) {
+      throw new IllegalArgumentException(jar + " doesn't exist, run mvn package for " + name);
+    }
+    command.addAll(Arrays.asList(
+        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+        "-jar", jar, "--server.port=" + port));
+    command.addAll(args);
+  }
+
+  public String getUrl() {
+    return "http://localhost:" + port;
+  }
+
+  /**
+   * Starts the service and waits until its health check answers
+   */
+  public void start(OkHttpClient client) throws IOException, InterruptedException {
+    File log = new File("target", name + ".log");
+    log.getParentFile().mkdirs();
+    process = new ProcessBuilder(command).redirectErrorStream(true)
+        .redirectOutput(log).start();
+    // don't leave the service running if the load test is stopped early
+    Process started = process;
+    Runtime.getRuntime().addShutdownHook(new Thread(started::destroy));
+    long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+    Request health = new Request.Builder().url(getUrl() + "/actuator/health").build();
+    while (System.currentTimeMillis() < deadline) {
+      if (!process.isAlive()) {
+        throw new IllegalStateException(name + " exited, see " + log);
+      }
+      try (Response response = client.newCall(health).execute()) {
+        if (response.isSuccessful()) {
+          System.out.println(name + " is up at " + getUrl());
+          return;
+        }
+      } catch (IOException e) {
+        // not listening yet
+      }
+      Thread.sleep(500);
+    }
+    throw new IllegalStateException(name + " didn't start in time, see " + log);
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    if (process != null) {
+      process.destroy();
+      if (!process.waitFor(30, TimeUnit.SECONDS)) {
+        process.destroyForcibly();
+      }
+    }
+  }
+}
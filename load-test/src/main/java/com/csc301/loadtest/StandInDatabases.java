@@ -0,0 +1,50 @@
+package com.csc301.loadtest;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import java.net.InetSocketAddress;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+/**
+ * In-process stand-ins for the databases: an in-memory Mongo server (mongo-java-server) and an
+ * embedded Neo4j 3.5 (neo4j-harness). Both start empty and listen on a free port
+ */
+public class StandInDatabases implements AutoCloseable {
+
+  private MongoServer mongo;
+  private ServerControls neo4j;
+  private int mongoPort;
+
+  public void start() {
+    mongo = new MongoServer(new MemoryBackend());
+    InetSocketAddress address = mongo.bind();
+    mongoPort = address.getPort();
+    System.out.println("stand-in Mongo is listening on " + address);
+
+    neo4j = TestServerBuilders.newInProcessBuilder()
+        .withConfig("dbms.connector.bolt.enabled", "true")
+        .withConfig("dbms.connector.http.enabled", "false")
+        .withConfig("dbms.security.auth_enabled", "false")
+        .newServer();
+    System.out.println("stand-in Neo4j is listening on " + neo4j.boltURI());
+  }
+
+  public int getMongoPort() {
+    return mongoPort;
+  }
+
+  public String getNeo4jUri() {
+    return neo4j.boltURI().toString();
+  }
+
+  @Override
+  public void close() {
+    if (neo4j != null) {
+      neo4j.close();
+    }
+    if (mongo != null) {
+      mongo.shutdownNow();
+    }
+  }
+}
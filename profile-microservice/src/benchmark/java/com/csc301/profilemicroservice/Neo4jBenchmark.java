@@ -0,0 +1,97 @@
+package com.csc301.profilemicroservice;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PlaylistDriverImpl.likeSong and ProfileDriverImpl.getAllSongFriendsLike against an embedded
+ * Neo4j 3.5 (neo4j-harness) with the service's schema. The reader follows FRIENDS profiles that
+ * each like SONGS_PER_FRIEND songs out of SONGS; every likeSong call likes a song that isn't in
+ * the playlist yet, with the outbox on and the friend feed off as by default. The embedded server
+ * listens on a free port, and the driver has the service's default pool settings
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Neo4jBenchmark {
+
+  private static final int FRIENDS = 50;
+  private static final int SONGS_PER_FRIEND = 20;
+  private static final int SONGS = 500;
+
+  private ServerControls server;
+  private Driver driver;
+  private PlaylistDriverImpl playlistDriver;
+  private ProfileDriverImpl profileDriver;
+  private final AtomicLong nextSong = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkSupport.discardStdout();
+    server = TestServerBuilders.newInProcessBuilder()
+        .withConfig("dbms.connector.bolt.enabled", "true")
+        .withConfig("dbms.connector.http.enabled", "false")
+        .withConfig("dbms.security.auth_enabled", "false")
+        .newServer();
+    driver = GraphDatabase.driver(server.boltURI(), AuthTokens.none());
+    new SchemaBootstrapper(driver).bootstrap();
+    FriendFeedDriverImpl friendFeedDriver = new FriendFeedDriverImpl(driver, false);
+    friendFeedDriver.initFriendFeedDb();
+    profileDriver = new ProfileDriverImpl(driver, friendFeedDriver);
+    SongRecommender songRecommender =
+        new SongRecommender(profileDriver, new SimpleMeterRegistry(), 10000, 300);
+    playlistDriver = new PlaylistDriverImpl(driver, true, friendFeedDriver, songRecommender);
+
+    profileDriver.createUserProfile("reader", "Reader", "password");
+    profileDriver.createUserProfile("liker", "Liker", "password");
+    for (int friend = 0; friend < FRIENDS; friend++) {
+      String userName = "friend" + friend;
+      profileDriver.createUserProfile(userName, "Friend " + friend, "password");
+      profileDriver.followFriend("reader", userName);
+      List<String> songIds = new ArrayList<>();
+      for (int song = 0; song < SONGS_PER_FRIEND; song++) {
+        songIds.add("song" + ((friend * 7 + song * 13) % SONGS));
+      }
+      playlistDriver.likeSongs(userName, songIds);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    driver.close();
+    server.close();
+  }
+
+  @Benchmark
+  public DbQueryStatus likeSong() {
+    return playlistDriver.likeSong("liker", "liked" + nextSong.incrementAndGet());
+  }
+
+  @Benchmark
+  public DbQueryStatus getAllSongFriendsLike() {
+    return profileDriver.getAllSongFriendsLike("reader");
+  }
+}
@@ -0,0 +1,63 @@
+package com.csc301.profilemicroservice;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The data the Songs Microservice returns after changing many favourite counts at once, e.g.
+ * { "updated" : 2, "skipped" : 0 } from updateSongsFavouritesCount
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class FavouritesCounts {
+
+  private int updated;
+  private int applied;
+  private int skipped;
+  private List<String> rejectedKeys = Collections.emptyList();
+
+  /**
+   * @return how many songs updateSongsFavouritesCount changed
+   */
+  public int getUpdated() {
+    return updated;
+  }
+
+  public void setUpdated(int updated) {
+    this.updated = updated;
+  }
+
+  /**
+   * @return how many songs applySongsFavouritesUpdates changed
+   */
+  public int getApplied() {
+    return applied;
+  }
+
+  public void setApplied(int applied) {
+    this.applied = applied;
+  }
+
+  /**
+   * @return how many songs were missing or couldn't be changed
+   */
+  public int getSkipped() {
+    return skipped;
+  }
+
+  public void setSkipped(int skipped) {
+    this.skipped = skipped;
+  }
+
+  /**
+   * @return the keys of the changes applySongsFavouritesUpdates couldn't apply yet, since they
+   *     would take a count below 0
+   */
+  public List<String> getRejectedKeys() {
+    return rejectedKeys;
+  }
+
+  public void setRejectedKeys(List<String> rejectedKeys) {
+    this.rejectedKeys = rejectedKeys == null ? Collections.<String>emptyList() : rejectedKeys;
+  }
+}
@@ -0,0 +1,215 @@
+package com.csc301.profilemicroservice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Sends the favourite count changes recorded in the outbox to the Songs Microservice
+ * applySongsFavouritesUpdates API, so likes and unlikes don't wait for it.
+ * <p>
+ * Changes are sent oldest first, batchSize at a time, by a single background thread. Each change
+ * has a key the Songs Microservice remembers, so a batch that is sent again after a failure isn't
+ * counted twice. A change is only removed from the outbox once its batch was accepted; failed
+ * batches are retried with an exponential backoff up to maxBackoffMs. Once more than maxPending
+ * changes are waiting, new likes and unlikes are turned away until the outbox drains.
+ * <p>
+ * Changes the Songs Microservice rejects because they would take a count below 0, e.g. an unlike
+ * that got ahead of its like, stay in the outbox and are sent again, up to maxAttempts times.
+ */
+@Component
+public class FavouritesOutboxDispatcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FavouritesOutboxDispatcher.class);
+
+  private static final ParameterizedTypeReference<ApiResponse<FavouritesCounts>>
+      FAVOURITES_COUNTS_RESPONSE = new ParameterizedTypeReference<ApiResponse<FavouritesCounts>>() {
+      };
+
+  private final PlaylistDriverImpl playlistDriver;
+  private final RestTemplate restTemplate;
+  private final String songServiceUrl;
+  private final boolean enabled;
+  private final int batchSize;
+  private final long pollIntervalMs;
+  private final long maxBackoffMs;
+  private final long maxPending;
+  private final int maxAttempts;
+
+  // what the last poll saw, so requests can check it without going to the DB
+  private final AtomicLong pending = new AtomicLong();
+  private final Counter delivered;
+  private final Counter failedBatches;
+  private final Counter dropped;
+
+  private ScheduledExecutorService dispatcher;
+  private long backoffMs;
+
+  public FavouritesOutboxDispatcher(PlaylistDriverImpl playlistDriver, RestTemplate restTemplate,
+      MeterRegistry registry,
+      @Value("${interservice.songService.url}") String songServiceUrl,
+      @Value("${interservice.favourites.outbox.enabled:true}") boolean enabled,
+      @Value("${interservice.favourites.outbox.batchSize:100}") int batchSize,
+      @Value("${interservice.favourites.outbox.pollIntervalMs:500}") long pollIntervalMs,
+      @Value("${interservice.favourites.outbox.maxBackoffMs:30000}") long maxBackoffMs,
+      @Value("${interservice.favourites.outbox.maxPending:100000}") long maxPending,
+      @Value("${interservice.favourites.outbox.maxAttempts:20}") int maxAttempts) {
+    this.playlistDriver = playlistDriver;
+    this.restTemplate = restTemplate;
+    this.songServiceUrl = songServiceUrl;
+    this.enabled = enabled;
+    this.batchSize = batchSize;
+    this.pollIntervalMs = pollIntervalMs;
+    this.maxBackoffMs = maxBackoffMs;
+    this.maxPending = maxPending;
+    this.maxAttempts = Math.max(1, maxAttempts);
+
+    Gauge.builder("favourites.outbox.pending", pending, AtomicLong::get)
+        .description("Favourite count changes waiting to be sent to the Songs Microservice")
+        .register(registry);
+    this.delivered = Counter.builder("favourites.outbox.delivered")
+        .description("Favourite count changes accepted by the Songs Microservice")
+        .register(registry);
+    this.failedBatches = Counter.builder("favourites.outbox.failed")
+        .description("Batches the Songs Microservice couldn't be sent, and will be sent again")
+        .register(registry);
+    this.dropped = Counter.builder("favourites.outbox.dropped")
+        .description("Favourite count changes rejected maxAttempts times and given up on")
+        .register(registry);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "favourites-outbox");
+      thread.setDaemon(true);
+      return thread;
+    });
+    dispatcher.schedule(this::dispatch, 0, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (dispatcher != null) {
+      dispatcher.shutdownNow();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns true if too many changes are waiting to take new likes and unlikes
+   */
+  public boolean isFull() {
+    return enabled && pending.get() >= maxPending;
+  }
+
+  /**
+   * Sends one batch and schedules the next: right away if there is more waiting, after the poll
+   * interval if the outbox is empty or changes were rejected, and after a growing backoff if the
+   * batch failed
+   */
+  private void dispatch() {
+    long delayMs;
+    try {
+      int sent = sendBatch();
+      backoffMs = 0;
+      delayMs = sent == batchSize ? 0 : pollIntervalMs;
+    } catch (RuntimeException e) {
+      failedBatches.increment();
+      backoffMs = backoffMs == 0 ? pollIntervalMs : Math.min(backoffMs * 2, maxBackoffMs);
+      delayMs = backoffMs;
+      LOG.warn("could not send favourite updates, retrying in {}ms: {}", delayMs,
+          e.getMessage());
+    }
+    if (!dispatcher.isShutdown()) {
+      dispatcher.schedule(this::dispatch, delayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Sends the oldest batch of changes and removes the ones that were applied, were already
+   * applied or are for songs that are gone. The rejected ones are kept to be sent again
+   *
+   * @return how many changes were removed from the outbox
+   */
+  private int sendBatch() {
+    DbQueryStatus dbQueryStatus = playlistDriver.getFavouritesOutbox(batchSize);
+    if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
+      throw new IllegalStateException(dbQueryStatus.getMessage());
+    }
+    Map<String, Object> outbox = (Map<String, Object>) dbQueryStatus.getData();
+    pending.set((Long) outbox.get("pending"));
+    List<Map<String, Object>> updates = (List<Map<String, Object>>) outbox.get("updates");
+    if (updates.isEmpty()) {
+      return 0;
+    }
+
+    Set<String> rejectedKeys = new HashSet<>(callApplySongsFavouritesUpdatesAPI(updates));
+    List<String> keys = new ArrayList<>(updates.size());
+    for (Map<String, Object> update : updates) {
+      if (!rejectedKeys.contains(update.get("key"))) {
+        keys.add((String) update.get("key"));
+      }
+    }
+    // one transaction, so if this fails the batch is sent again as a whole: the keys keep the
+    // delivered changes from being counted twice, and the rejected ones aren't counted as an attempt
+    dbQueryStatus = playlistDriver
+        .settleFavouritesOutbox(keys, new ArrayList<>(rejectedKeys), maxAttempts);
+    if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
+      throw new IllegalStateException(dbQueryStatus.getMessage());
+    }
+    delivered.increment(keys.size());
+    dropped.increment((Long) dbQueryStatus.getData());
+    long removed = keys.size() + (Long) dbQueryStatus.getData();
+    pending.addAndGet(-removed);
+    return (int) removed;
+  }
+
+  /**
+   * @return the keys of the changes the Songs Microservice rejected
+   */
+  private List<String> callApplySongsFavouritesUpdatesAPI(List<Map<String, Object>> updates)
+      throws RestClientException {
+    final String uri = songServiceUrl + "/applySongsFavouritesUpdates";
+
+    ResponseEntity<ApiResponse<FavouritesCounts>> result = restTemplate
+        .exchange(uri, HttpMethod.PUT, new HttpEntity<>(updates), FAVOURITES_COUNTS_RESPONSE);
+    // missing songs and keys that were already applied are skipped, not failed, and counts that
+    // would go < 0 are rejected one by one, so only retry the whole batch if the call failed
+    if (!result.getBody().isOk()) {
+      throw new RestClientException("Songs applySongsFavouritesUpdates API returned "
+          + result.getBody().getStatus() + ": " + result.getBody().getMessage());
+    }
+    FavouritesCounts counts = result.getBody().getData();
+    return counts == null ? Collections.<String>emptyList() : counts.getRejectedKeys();
+  }
+}
@@ -0,0 +1,10 @@
+package com.csc301.profilemicroservice;
+
+public interface FriendFeedDriver {
+
+  DbQueryStatus getFriendFeed(String userName);
+
+  DbQueryStatus rebuildFriendFeed(String userName);
+
+  DbQueryStatus findFriendFeedsToRebuild(String after, int limit);
+}
@@ -0,0 +1,358 @@
+package com.csc301.profilemicroservice;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+import io.micrometer.core.annotation.Timed;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Values;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Materialized friend feeds: the songIds in the playlists of everyone a user follows, kept up to
+ * date on every like, unlike, follow and unfollow so getAllFriendFavouriteSongTitles reads one
+ * feed instead of walking the graph.
+ * <p>
+ * Each user's feed is a (:friendFeed {userName}) node with one (:feedEntry {friend, songIds})
+ * per profile they follow. Changes are written to the feeds in the same transaction as the change
+ * itself, and every write locks the feed node first, so a rebuild running at the same time either
+ * sees the change or is followed by it. Songs that are deleted are taken out of the feeds as the
+ * SongDeletionSweeper removes them from the playlists.
+ * <p>
+ * Feeds are only kept up to date while the feed mode is on. Each time it is turned on after being
+ * off the epoch goes up, and feeds built in an earlier epoch count as missing.
+ */
+@Repository
+public class FriendFeedDriverImpl implements FriendFeedDriver {
+
+  private static final String STATE_NAME = "profile-microservice";
+
+  private final Driver driver;
+
+  private final boolean enabled;
+
+  private long epoch;
+
+  public FriendFeedDriverImpl(Driver driver,
+      @Value("${friendFeed.enabled:false}") boolean enabled) {
+    this.driver = driver;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Records whether the feed mode is on, and starts a new epoch if it was off before
+   */
+  @PostConstruct
+  public void initFriendFeedDb() {
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        StatementResult result = trans.run(
+            "MERGE (nState:friendFeedState {name: $name}) "
+                + " SET nState.epoch = coalesce(nState.epoch, 0) "
+                + "   + CASE WHEN $enabled AND NOT coalesce(nState.enabled, false) THEN 1 ELSE 0 END, "
+                + " nState.enabled = $enabled "
+                + " RETURN nState.epoch AS epoch",
+            parameters("name", STATE_NAME, "enabled", enabled));
+        epoch = result.single().get("epoch").asLong();
+        trans.success();
+      }
+      session.close();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the user's feed, building it first if it is missing
+   *
+   * @param userName the user who's friends to find
+   * @return the songIds of each friend as data, like ProfileDriverImpl.getAllSongFriendsLike
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus getFriendFeed(String userName) {
+    // check params
+    if (userName == null || userName.isEmpty()) {
+      return new DbQueryStatus("Missing Parameters", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    Map<String, List<String>> idListsMap = new HashMap<>();
+    boolean built = false;
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        // one row per friend, or a single row with a null name if the user follows nobody or the
+        // feed is missing
+        StatementResult result = trans.run(
+            "OPTIONAL MATCH (nFeed:friendFeed {userName: $userName}) "
+                + " OPTIONAL MATCH (nFeed)-[:entry]->(nEntry:feedEntry) "
+                + " RETURN nFeed IS NOT NULL AND nFeed.epoch = $epoch AS built, "
+                + " nEntry.friend AS name, nEntry.songIds AS songIds",
+            parameters("userName", userName, "epoch", epoch));
+        while (result.hasNext()) {
+          Record record = result.next();
+          built = record.get("built").asBoolean();
+          if (!record.get("name").isNull()) {
+            idListsMap.put(record.get("name").asString(),
+                record.get("songIds").asList(Values.ofString()));
+          }
+        }
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        return new DbQueryStatus("Something went wrong", DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    if (!built) {
+      // a new user, or the feed mode was off for a while
+      return rebuildFriendFeed(userName);
+    }
+    return feedStatus(idListsMap);
+  }
+
+  /**
+   * Builds the user's feed again from the graph, replacing what was there
+   *
+   * @param userName the user who's feed to build
+   * @return the songIds of each friend as data, like ProfileDriverImpl.getAllSongFriendsLike
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus rebuildFriendFeed(String userName) {
+    Map<String, List<String>> idListsMap = new HashMap<>();
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        // the feed is locked in its own statement before the graph is read, so changes made
+        // meanwhile wait for it and are then written on top of it
+        StatementResult lock = trans.run(
+            "MATCH (:profile {userName: $userName}) "
+                + " MERGE (nFeed:friendFeed {userName: $userName}) "
+                + " SET nFeed._lock = true "
+                + " RETURN nFeed",
+            parameters("userName", userName));
+        if (!lock.hasNext()) {
+          return new DbQueryStatus("User doesn't exist in the DB",
+              DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+        }
+        StatementResult result = trans.run(
+            "MATCH (nUser:profile {userName: $userName}) "
+                + " MATCH (nFeed:friendFeed {userName: $userName}) "
+                + " SET nFeed.epoch = $epoch, nFeed.builtAt = timestamp() "
+                + " REMOVE nFeed._lock "
+                + " WITH nUser, nFeed "
+                + " OPTIONAL MATCH (nFeed)-[:entry]->(nOld:feedEntry) "
+                + " DETACH DELETE nOld "
+                + " WITH DISTINCT nUser, nFeed "
+                + " OPTIONAL MATCH (nUser)-[:follows]->(nFriend:profile) "
+                + " OPTIONAL MATCH (nFriend)-[:created]->(:playlist)-[:includes]->(nSong:song) "
+                + "   WHERE nSong.deleted IS NULL "
+                + " WITH nFeed, nFriend, collect(nSong.songId) AS songIds "
+                + " FOREACH (f IN CASE WHEN nFriend IS NULL THEN [] ELSE [nFriend] END | "
+                + "   CREATE (nFeed)-[:entry]->(:feedEntry {friend: f.userName, songIds: songIds})) "
+                + " RETURN nFriend.userName AS name, songIds",
+            parameters("userName", userName, "epoch", epoch));
+        while (result.hasNext()) {
+          Record record = result.next();
+          if (!record.get("name").isNull()) {
+            idListsMap.put(record.get("name").asString(),
+                record.get("songIds").asList(Values.ofString()));
+          }
+        }
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        return new DbQueryStatus("Something went wrong", DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    return feedStatus(idListsMap);
+  }
+
+  /**
+   * Checks the feeds of the next limit users, in userName order, for ones that are missing, from
+   * an earlier epoch or don't have exactly one entry per profile the user follows
+   *
+   * @param after the last userName checked before, "" to start from the beginning
+   * @param limit the most users to check
+   * @return the "last" userName checked, or null if there were none left, and the "userNames" of
+   *         the users whose feed needs to be built again as data
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus findFriendFeedsToRebuild(String after, int limit) {
+    DbQueryStatus queryStatus;
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        StatementResult result = trans.run(
+            "MATCH (nUser:profile) WHERE nUser.userName > $after "
+                + " WITH nUser ORDER BY nUser.userName LIMIT $limit "
+                + " OPTIONAL MATCH (nFeed:friendFeed {userName: nUser.userName}) "
+                + " RETURN nUser.userName AS name, nFeed IS NULL OR nFeed.epoch <> $epoch "
+                + "   OR size((nFeed)-[:entry]->()) <> size((nUser)-[:follows]->()) "
+                // the same number of entries can still be for the wrong friends
+                + "   OR any(friend IN [(nUser)-[:follows]->(nFriend:profile) | nFriend.userName] "
+                + "     WHERE NOT friend IN [(nFeed)-[:entry]->(nEntry:feedEntry) | nEntry.friend]) "
+                + "   AS rebuild",
+            parameters("after", after, "limit", limit, "epoch", epoch));
+        String last = null;
+        List<String> userNames = new ArrayList<>();
+        while (result.hasNext()) {
+          Record record = result.next();
+          last = record.get("name").asString();
+          if (record.get("rebuild").asBoolean()) {
+            userNames.add(last);
+          }
+        }
+        Map<String, Object> batch = new HashMap<>();
+        batch.put("last", last);
+        batch.put("userNames", userNames);
+        queryStatus = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+        queryStatus.setData(batch);
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        queryStatus = new DbQueryStatus("Friend feeds not checked",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    return queryStatus;
+  }
+
+  /**
+   * Adds songs the user liked to the feeds of their followers, as part of the like's transaction
+   *
+   * @param trans    the transaction of the like
+   * @param userName the user who liked the songs
+   * @param songIds  the songs that were added to their playlist
+   */
+  public void addSongs(Transaction trans, String userName, List<String> songIds) {
+    if (!enabled || songIds.isEmpty()) {
+      return;
+    }
+    // the feeds are locked in userName order, so two likes can't deadlock on them
+    trans.run(
+        "MATCH (nFollower:profile)-[:follows]->(:profile {userName: $userName}) "
+            + " MATCH (nFeed:friendFeed {userName: nFollower.userName}) "
+            + " WITH nFeed ORDER BY nFeed.userName "
+            + " SET nFeed.updatedAt = timestamp() "
+            + " MERGE (nFeed)-[:entry]->(nEntry:feedEntry {friend: $userName}) "
+            + " SET nEntry.songIds = coalesce(nEntry.songIds, []) "
+            + "   + [songId IN $songIds WHERE NOT songId IN coalesce(nEntry.songIds, [])]",
+        parameters("userName", userName, "songIds", songIds));
+  }
+
+  /**
+   * Removes songs the user unliked from the feeds of their followers, as part of the unlike's
+   * transaction
+   *
+   * @param trans    the transaction of the unlike
+   * @param userName the user who unliked the songs
+   * @param songIds  the songs that were removed from their playlist
+   */
+  public void removeSongs(Transaction trans, String userName, List<String> songIds) {
+    if (!enabled || songIds.isEmpty()) {
+      return;
+    }
+    trans.run(
+        "MATCH (nFollower:profile)-[:follows]->(:profile {userName: $userName}) "
+            + " MATCH (nFeed:friendFeed {userName: nFollower.userName}) "
+            + " WITH nFeed ORDER BY nFeed.userName "
+            + " SET nFeed.updatedAt = timestamp() "
+            + " WITH nFeed "
+            + " MATCH (nFeed)-[:entry]->(nEntry:feedEntry {friend: $userName}) "
+            + " SET nEntry.songIds = [songId IN nEntry.songIds WHERE NOT songId IN $songIds]",
+        parameters("userName", userName, "songIds", songIds));
+  }
+
+  /**
+   * Removes a deleted song from the feeds of the followers of the users whose playlists it was just
+   * swept from, as part of the sweep's transaction
+   *
+   * @param trans     the transaction of the sweep
+   * @param songId    the song that was deleted
+   * @param userNames the users whose playlists the song was removed from
+   */
+  public void removeDeletedSong(Transaction trans, String songId, List<String> userNames) {
+    if (!enabled || userNames.isEmpty()) {
+      return;
+    }
+    trans.run(
+        "MATCH (nFollower:profile)-[:follows]->(nFriend:profile) "
+            + "   WHERE nFriend.userName IN $userNames "
+            + " MATCH (nFeed:friendFeed {userName: nFollower.userName}) "
+            + " WITH DISTINCT nFeed ORDER BY nFeed.userName "
+            + " SET nFeed.updatedAt = timestamp() "
+            + " WITH nFeed "
+            + " MATCH (nFeed)-[:entry]->(nEntry:feedEntry) "
+            + "   WHERE nEntry.friend IN $userNames AND $songId IN nEntry.songIds "
+            + " SET nEntry.songIds = [id IN nEntry.songIds WHERE id <> $songId]",
+        parameters("songId", songId, "userNames", userNames));
+  }
+
+  /**
+   * Adds the friend's songs to the user's feed, as part of the follow's transaction
+   *
+   * @param trans          the transaction of the follow
+   * @param userName       the user who followed
+   * @param friendUserName the user who was followed
+   */
+  public void follow(Transaction trans, String userName, String friendUserName) {
+    if (!enabled) {
+      return;
+    }
+    trans.run(
+        "MATCH (nFeed:friendFeed {userName: $userName}) "
+            + " SET nFeed.updatedAt = timestamp() "
+            + " WITH nFeed "
+            + " MATCH (nFriend:profile {userName: $friendUserName}) "
+            + " OPTIONAL MATCH (nFriend)-[:created]->(:playlist)-[:includes]->(nSong:song) "
+            + "   WHERE nSong.deleted IS NULL "
+            + " WITH nFeed, collect(nSong.songId) AS songIds "
+            + " MERGE (nFeed)-[:entry]->(nEntry:feedEntry {friend: $friendUserName}) "
+            + " SET nEntry.songIds = songIds",
+        parameters("userName", userName, "friendUserName", friendUserName));
+  }
+
+  /**
+   * Removes the friend's songs from the user's feed, as part of the unfollow's transaction
+   *
+   * @param trans          the transaction of the unfollow
+   * @param userName       the user who unfollowed
+   * @param friendUserName the user who was unfollowed
+   */
+  public void unfollow(Transaction trans, String userName, String friendUserName) {
+    if (!enabled) {
+      return;
+    }
+    trans.run(
+        "MATCH (nFeed:friendFeed {userName: $userName}) "
+            + " SET nFeed.updatedAt = timestamp() "
+            + " WITH nFeed "
+            + " MATCH (nFeed)-[:entry]->(nEntry:feedEntry {friend: $friendUserName}) "
+            + " DETACH DELETE nEntry",
+        parameters("userName", userName, "friendUserName", friendUserName));
+  }
+
+  private static DbQueryStatus feedStatus(Map<String, List<String>> idListsMap) {
+    DbQueryStatus queryStatus;
+    if (idListsMap.isEmpty()) {
+      queryStatus = new DbQueryStatus("User doesn't follow anyone", DbQueryExecResult.QUERY_OK);
+    } else {
+      queryStatus = new DbQueryStatus("All songs in friends' playlists returned",
+          DbQueryExecResult.QUERY_OK);
+    }
+    queryStatus.setData(idListsMap);
+    return queryStatus;
+  }
+}
@@ -0,0 +1,95 @@
+package com.csc301.profilemicroservice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Goes through every profile in the background, batchSize at a time, and builds the friend feeds
+ * that are missing, from an earlier epoch or don't match who the user follows. A pass starts at
+ * startup and then every intervalMs, and only runs while the feed mode is on.
+ */
+@Component
+public class FriendFeedRebuilder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FriendFeedRebuilder.class);
+
+  private final FriendFeedDriverImpl friendFeedDriver;
+  private final int batchSize;
+  private final long intervalMs;
+  private final Counter rebuilt;
+
+  private ScheduledExecutorService rebuilder;
+
+  public FriendFeedRebuilder(FriendFeedDriverImpl friendFeedDriver, MeterRegistry registry,
+      @Value("${friendFeed.rebuild.batchSize:500}") int batchSize,
+      @Value("${friendFeed.rebuild.intervalMs:600000}") long intervalMs) {
+    this.friendFeedDriver = friendFeedDriver;
+    this.batchSize = Math.max(1, batchSize);
+    this.intervalMs = intervalMs;
+    this.rebuilt = Counter.builder("friendFeed.rebuilt")
+        .description("Friend feeds built by the rebuild job").register(registry);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    if (!friendFeedDriver.isEnabled()) {
+      return;
+    }
+    rebuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "friend-feed-rebuilder");
+      thread.setDaemon(true);
+      return thread;
+    });
+    rebuilder.scheduleWithFixedDelay(this::rebuildQuietly, 0, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (rebuilder != null) {
+      rebuilder.shutdownNow();
+    }
+  }
+
+  private void rebuildQuietly() {
+    try {
+      rebuild();
+    } catch (RuntimeException e) {
+      LOG.warn("could not rebuild friend feeds, retrying in {}ms: {}", intervalMs,
+          e.getMessage());
+    }
+  }
+
+  /**
+   * One pass over all the profiles
+   */
+  private void rebuild() {
+    String after = "";
+    while (after != null && !Thread.currentThread().isInterrupted()) {
+      DbQueryStatus dbQueryStatus = friendFeedDriver.findFriendFeedsToRebuild(after, batchSize);
+      if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
+        throw new IllegalStateException(dbQueryStatus.getMessage());
+      }
+      Map<String, Object> batch = (Map<String, Object>) dbQueryStatus.getData();
+      for (String userName : (List<String>) batch.get("userNames")) {
+        // a user deleted meanwhile is simply not found
+        if (friendFeedDriver.rebuildFriendFeed(userName).getdbQueryExecResult()
+            == DbQueryExecResult.QUERY_OK) {
+          rebuilt.increment();
+        }
+      }
+      after = (String) batch.get("last");
+    }
+  }
+}
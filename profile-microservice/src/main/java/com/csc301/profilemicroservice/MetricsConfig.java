@@ -0,0 +1,23 @@
+package com.csc301.profilemicroservice;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The metrics that aren't recorded out of the box. Every request to a controller is timed as
+ * http.server.requests and every call to the Song Microservice as http.client.requests; this adds
+ * a timer per Neo4j driver method (profile.neo4j), see also Neo4jPoolMetrics
+ */
+@Configuration
+public class MetricsConfig {
+
+  /**
+   * Times the methods annotated with @Timed
+   */
+  @Bean
+  public TimedAspect timedAspect(MeterRegistry registry) {
+    return new TimedAspect(registry);
+  }
+}
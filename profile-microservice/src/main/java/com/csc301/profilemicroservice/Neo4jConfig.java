@@ -0,0 +1,112 @@
+package com.csc301.profilemicroservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.driver.internal.metrics.spi.Metrics;
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The Neo4j driver every driver class and background job shares. Its connection pool is sized and
+ * timed out from the properties, and warmed up before the web server starts, so the first requests
+ * after a deploy don't each have to open a connection
+ */
+@Configuration
+public class Neo4jConfig {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Neo4jConfig.class);
+
+  /**
+   * Builds the driver and opens warmupConnections connections in its pool
+   *
+   * @param uri                      where Neo4j is running
+   * @param username                 the user to connect as
+   * @param password                 the user's password
+   * @param encrypted                whether to connect with TLS
+   * @param maxPoolSize              the most connections open at once
+   * @param acquisitionTimeoutMs     how long a call waits for a connection when all are in use
+   * @param maxConnectionLifetimeMs  how long a connection is used before it is closed
+   * @param livenessCheckTimeoutMs   how long a connection can be idle before it is tested when it
+   *                                 is taken from the pool, 0 to always test and -1 to never test
+   * @param connectTimeoutMs         how long to wait for a connection to be opened
+   * @param warmupConnections        how many connections to open at startup
+   */
+  @Bean(destroyMethod = "close")
+  public Driver neo4jDriver(
+      @Value("${neo4j.uri:bolt://localhost:7687}") String uri,
+      @Value("${neo4j.username:neo4j}") String username,
+      @Value("${neo4j.password:password}") String password,
+      @Value("${neo4j.encrypted:true}") boolean encrypted,
+      @Value("${neo4j.pool.maxSize:100}") int maxPoolSize,
+      @Value("${neo4j.pool.acquisitionTimeoutMs:60000}") long acquisitionTimeoutMs,
+      @Value("${neo4j.pool.maxConnectionLifetimeMs:3600000}") long maxConnectionLifetimeMs,
+      @Value("${neo4j.pool.livenessCheckTimeoutMs:-1}") long livenessCheckTimeoutMs,
+      @Value("${neo4j.pool.connectTimeoutMs:5000}") long connectTimeoutMs,
+      @Value("${neo4j.pool.warmupConnections:10}") int warmupConnections) {
+    // read once when the driver is created, so it has to be set before; see Neo4jPoolMetrics
+    System.setProperty(Metrics.DRIVER_METRICS_ENABLED_KEY, "true");
+
+    Config.ConfigBuilder config = Config.build()
+        .withMaxConnectionPoolSize(maxPoolSize)
+        .withConnectionAcquisitionTimeout(acquisitionTimeoutMs, TimeUnit.MILLISECONDS)
+        .withMaxConnectionLifetime(maxConnectionLifetimeMs, TimeUnit.MILLISECONDS)
+        .withConnectionLivenessCheckTimeout(livenessCheckTimeoutMs, TimeUnit.MILLISECONDS)
+        .withConnectionTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS);
+    if (encrypted) {
+      config.withEncryption();
+    } else {
+      config.withoutEncryption();
+    }
+    Driver driver = GraphDatabase
+        .driver(uri, AuthTokens.basic(username, password), config.toConfig());
+    warmUp(driver, Math.min(warmupConnections, maxPoolSize));
+    return driver;
+  }
+
+  /**
+   * Opens the connections by holding that many transactions open at once, then hands them all
+   * back to the pool. A Neo4j that can't be reached is only reported, like a cold pool
+   *
+   * @param driver      the driver whose pool to fill
+   * @param connections how many connections to open
+   */
+  private static void warmUp(Driver driver, int connections) {
+    if (connections < 1) {
+      return;
+    }
+    long start = System.nanoTime();
+    List<Session> sessions = new ArrayList<>(connections);
+    try {
+      for (int i = 0; i < connections; i++) {
+        Session session = driver.session();
+        sessions.add(session);
+        // a session only takes a connection from the pool once it runs something
+        Transaction trans = session.beginTransaction();
+        trans.run("RETURN 1").consume();
+      }
+      LOG.info("opened {} Neo4j connections in {}ms", connections,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (RuntimeException e) {
+      LOG.warn("could not warm up the Neo4j connection pool: {}", e.getMessage());
+    } finally {
+      // closing the session rolls its transaction back and returns the connection
+      for (Session session : sessions) {
+        try {
+          session.close();
+        } catch (RuntimeException e) {
+          // the connection is already gone
+        }
+      }
+    }
+  }
+}
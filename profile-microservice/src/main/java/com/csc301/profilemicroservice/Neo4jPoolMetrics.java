@@ -0,0 +1,67 @@
+package com.csc301.profilemicroservice;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.ToDoubleFunction;
+import org.neo4j.driver.internal.InternalDriver;
+import org.neo4j.driver.internal.metrics.spi.ConnectionPoolMetrics;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the connection pool of the Neo4j driver: the connections in use, idle and being opened,
+ * the threads waiting for one, and how many acquisitions timed out. This version of the driver only
+ * has these stats internally, and only when they were enabled before it was created, which
+ * Neo4jConfig does. The values are summed over the pools of every server
+ */
+@Component
+public class Neo4jPoolMetrics implements MeterBinder {
+
+  private final Driver driver;
+
+  public Neo4jPoolMetrics(Driver driver) {
+    this.driver = driver;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    gauge(registry, "neo4j.driver.pool.inuse", "Connections in use", ConnectionPoolMetrics::inUse);
+    gauge(registry, "neo4j.driver.pool.idle", "Idle connections", ConnectionPoolMetrics::idle);
+    gauge(registry, "neo4j.driver.pool.creating", "Connections being opened",
+        ConnectionPoolMetrics::creating);
+    gauge(registry, "neo4j.driver.pool.acquiring", "Threads waiting for a connection",
+        ConnectionPoolMetrics::acquiring);
+    FunctionCounter.builder("neo4j.driver.pool.acquisition.timeouts", this,
+        metrics -> sum(ConnectionPoolMetrics::timedOutToAcquire))
+        .description("Connection acquisitions that timed out").register(registry);
+    FunctionCounter.builder("neo4j.driver.pool.created", this,
+        metrics -> sum(ConnectionPoolMetrics::created))
+        .description("Connections opened").register(registry);
+  }
+
+  private void gauge(MeterRegistry registry, String name, String description,
+      ToDoubleFunction<ConnectionPoolMetrics> value) {
+    Gauge.builder(name, this, metrics -> sum(value)).description(description).register(registry);
+  }
+
+  private double sum(ToDoubleFunction<ConnectionPoolMetrics> value) {
+    return pools().stream().mapToDouble(value).sum();
+  }
+
+  private Collection<ConnectionPoolMetrics> pools() {
+    if (!(driver instanceof InternalDriver)) {
+      return Collections.emptyList();
+    }
+    try {
+      return ((InternalDriver) driver).metrics().connectionPoolMetrics().values();
+    } catch (ClientException e) {
+      // the metrics weren't enabled
+      return Collections.emptyList();
+    }
+  }
+}
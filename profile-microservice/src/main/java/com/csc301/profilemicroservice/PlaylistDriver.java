@@ -1,10 +1,25 @@
 package com.csc301.profilemicroservice;
 
+import java.util.List;
+
 public interface PlaylistDriver {
 
   DbQueryStatus likeSong(String userName, String songId);
 
   DbQueryStatus unlikeSong(String userName, String songId);
 
+  DbQueryStatus likeSongs(String userName, List<String> songIds);
+
+  DbQueryStatus unlikeSongs(String userName, List<String> songIds);
+
   DbQueryStatus deleteSongFromDb(String songId);
+
+  DbQueryStatus sweepDeletedSong(int batchSize);
+
+  DbQueryStatus getAllSongIds(int limit);
+
+  DbQueryStatus getFavouritesOutbox(int limit);
+
+  DbQueryStatus settleFavouritesOutbox(List<String> deliveredKeys, List<String> rejectedKeys,
+      int maxAttempts);
 }
\ No newline at end of file
@@ -2,21 +2,63 @@ package com.csc301.profilemicroservice;
 
 import static org.neo4j.driver.v1.Values.parameters;
 
+import io.micrometer.core.annotation.Timed;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
 import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Values;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class PlaylistDriverImpl implements PlaylistDriver {
 
-  Driver driver = ProfileMicroserviceApplication.driver;
+  /**
+   * The most songs that can be liked or unliked in one call
+   */
+  public static final int MAX_BULK_SONGS = 10000;
 
-  public static void InitPlaylistDb() {
+  private final Driver driver;
+
+  /**
+   * True if likes and unlikes also record their favourite count change in the outbox, in the same
+   * transaction, for FavouritesOutboxDispatcher to send to the Songs Microservice
+   */
+  private final boolean outboxEnabled;
+
+  /**
+   * Keeps the followers' friend feeds up to date with likes and unlikes, when the feed mode is on
+   */
+  private final FriendFeedDriverImpl friendFeedDriver;
+
+  /**
+   * Told whose recommendations a like or unlike changed, the user's and their followers'
+   */
+  private final SongRecommender songRecommender;
+
+  public PlaylistDriverImpl(Driver driver,
+      @Value("${interservice.favourites.outbox.enabled:true}") boolean outboxEnabled,
+      FriendFeedDriverImpl friendFeedDriver, SongRecommender songRecommender) {
+    this.driver = driver;
+    this.outboxEnabled = outboxEnabled;
+    this.friendFeedDriver = friendFeedDriver;
+    this.songRecommender = songRecommender;
+  }
+
+  public void InitPlaylistDb() {
     String queryStr;
 
-    try (Session session = ProfileMicroserviceApplication.driver.session()) {
+    try (Session session = this.driver.session()) {
       try (Transaction trans = session.beginTransaction()) {
         queryStr = "CREATE CONSTRAINT ON (nPlaylist:playlist) ASSERT exists(nPlaylist.plName)";
         trans.run(queryStr);
@@ -27,9 +69,11 @@ public class PlaylistDriverImpl implements PlaylistDriver {
   }
 
   @Override
+  @Timed("profile.neo4j")
   public DbQueryStatus likeSong(String userName, String songId) {
     // add song and/or relationship to db
     DbQueryStatus queryStatus;
+    List<String> followers = null;
     // check params
     if (userName == null || songId == null || userName.isEmpty() || songId.isEmpty()) {
       return new DbQueryStatus("Missing Parameters", DbQueryExecResult.QUERY_ERROR_GENERIC);
@@ -37,30 +81,51 @@ public class PlaylistDriverImpl implements PlaylistDriver {
 
     try (Session session = this.driver.session()) {
       try (Transaction trans = session.beginTransaction()) {
-        // check user exists
-        StatementResult resultUser = trans.run(
-            "MATCH (nUser:profile {userName: $userName}) RETURN nUser",
-            parameters("userName", userName));
-        if (!resultUser.hasNext()) { // both users in db
-          return new DbQueryStatus("User doesn't exist in the DB",
-              DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
-        }
-
-        StatementResult resultSong = trans.run(
-            "MATCH (nPlaylist:playlist { plName: $plName }) "
-                + "MERGE (nSong:song {songId: $songId}) "
-                + " MERGE (nPlaylist)-[r:includes]->(nSong) "
-                + " RETURN nPlaylist.plName, type(r), nSong.songId ",
-            parameters("plName", userName + "-favorites", "songId", songId));
-        if (!resultSong.hasNext()) { // both users in db
-          queryStatus = new DbQueryStatus("Song couldn't be added to the playlist",
-              DbQueryExecResult.QUERY_ERROR_GENERIC);
-        } else {
-          queryStatus = new DbQueryStatus("Song added to playlist",
-              DbQueryExecResult.QUERY_OK);
+        // check the user and playlist exist, the song isn't deleted and isn't liked yet, then like
+        // it, in one round trip
+        StatementResult result = trans.run(
+            "OPTIONAL MATCH (nUser:profile {userName: $userName}) "
+                + " OPTIONAL MATCH (nPlaylist:playlist {plName: $plName}) "
+                + " OPTIONAL MATCH (nDeleted:song {songId: $songId, deleted: true}) "
+                + " WITH nUser, nPlaylist, CASE "
+                + "   WHEN nUser IS NULL THEN 'userNotFound' "
+                + "   WHEN nPlaylist IS NULL THEN 'playlistNotFound' "
+                + "   WHEN nDeleted IS NOT NULL THEN 'songDeleted' "
+                + "   WHEN EXISTS ((nPlaylist)-[:includes]->(:song {songId: $songId})) THEN 'exists' "
+                + "   ELSE 'ok' END AS status "
+                + " FOREACH (p IN CASE WHEN status = 'ok' THEN [nPlaylist] ELSE [] END | "
+                + "   MERGE (nSong:song {songId: $songId}) "
+                + "   MERGE (p)-[:includes]->(nSong) "
+                + "   FOREACH (ignored IN CASE WHEN $outbox THEN [1] ELSE [] END | "
+                + "     CREATE (:favouritesOutbox {key: $key, songId: $songId, delta: 1, "
+                + "       createdAt: timestamp()}))) "
+                + " RETURN status",
+            parameters("userName", userName, "plName", userName + "-favorites", "songId",
+                songId, "outbox", outboxEnabled, "key", UUID.randomUUID().toString()));
+        switch (result.single().get("status").asString()) {
+          case "userNotFound":
+            queryStatus = new DbQueryStatus("User doesn't exist in the DB",
+                DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+            break;
+          case "playlistNotFound":
+            queryStatus = new DbQueryStatus("Song couldn't be added to the playlist",
+                DbQueryExecResult.QUERY_ERROR_GENERIC);
+            break;
+          case "songDeleted":
+            queryStatus = new DbQueryStatus("Song doesn't exist in the DB",
+                DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+            break;
+          case "exists": // already liked, so the favourite count mustn't go up again
+            queryStatus = new DbQueryStatus("Relationship already exist in the DB",
+                DbQueryExecResult.QUERY_OK);
+            break;
+          default:
+            friendFeedDriver.addSongs(trans, userName, Collections.singletonList(songId));
+            followers = findFollowers(trans, userName);
+            queryStatus = new DbQueryStatus("Song added to playlist",
+                DbQueryExecResult.QUERY_OK);
         }
         trans.success();
-        // check relationship created
       } catch (Exception e) {
         e.printStackTrace();
         queryStatus = new DbQueryStatus("Relationship not added to DB",
@@ -68,13 +133,19 @@ public class PlaylistDriverImpl implements PlaylistDriver {
       }
       session.close();
     }
+    if (followers != null && queryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      // once the change is committed, so a load that starts after this sees it
+      songRecommender.invalidateWithFollowers(userName, followers);
+    }
     return queryStatus;
   }
 
   @Override
+  @Timed("profile.neo4j")
   public DbQueryStatus unlikeSong(String userName, String songId) {
     // check song in db
     DbQueryStatus queryStatus;
+    List<String> followers = null;
     // check params
     if (userName == null || songId == null || userName.isEmpty() || songId.isEmpty()) {
       return new DbQueryStatus("Missing Parameters", DbQueryExecResult.QUERY_ERROR_GENERIC);
@@ -82,79 +153,234 @@ public class PlaylistDriverImpl implements PlaylistDriver {
 
     try (Session session = this.driver.session()) {
       try (Transaction trans = session.beginTransaction()) {
-
-        // check user exists
-        StatementResult resultUser = trans.run(
-            "MATCH (nUser:profile {userName: $userName}) RETURN nUser",
-            parameters("userName", userName));
-        if (!resultUser.hasNext()) { // both users in db
-          return new DbQueryStatus("User doesn't exist in the DB",
-              DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+        // check the user, song and relationship exist, remove the relationship and then the song
+        // if no playlist includes it anymore, in one round trip. A deleted song is left for the
+        // SongDeletionSweeper, which still has to see it
+        StatementResult result = trans.run(
+            "OPTIONAL MATCH (nUser:profile {userName: $userName}) "
+                + " OPTIONAL MATCH (nSong:song {songId: $songId}) "
+                + " OPTIONAL MATCH (:playlist {plName: $plName})-[r:includes]->(nSong) "
+                + " WITH nUser, nSong, collect(r) AS rels "
+                + " WITH nSong, rels, CASE "
+                + "   WHEN nUser IS NULL THEN 'userNotFound' "
+                + "   WHEN nSong IS NULL THEN 'songNotFound' "
+                + "   WHEN size(rels) = 0 THEN 'missing' "
+                + "   ELSE 'ok' END AS status "
+                + " FOREACH (r IN CASE WHEN status = 'ok' THEN rels ELSE [] END | DELETE r) "
+                + " FOREACH (ignored IN CASE WHEN status = 'ok' AND $outbox THEN [1] ELSE [] END | "
+                + "   CREATE (:favouritesOutbox {key: $key, songId: $songId, delta: -1, "
+                + "     createdAt: timestamp()})) "
+                + " WITH nSong, status "
+                + " FOREACH (s IN CASE WHEN status = 'ok' AND nSong.deleted IS NULL "
+                + "   AND NOT ()-[:includes]->(nSong) THEN [nSong] ELSE [] END | DELETE s) "
+                + " RETURN status",
+            parameters("userName", userName, "plName", userName + "-favorites", "songId",
+                songId, "outbox", outboxEnabled, "key", UUID.randomUUID().toString()));
+        switch (result.single().get("status").asString()) {
+          case "userNotFound":
+            queryStatus = new DbQueryStatus("User doesn't exist in the DB",
+                DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+            break;
+          case "songNotFound":
+            queryStatus = new DbQueryStatus("Song doesn't exist in the DB",
+                DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+            break;
+          case "missing": // if relationship doesn't exist
+            queryStatus = new DbQueryStatus("Relationship doesn't exist in the DB",
+                DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+            break;
+          default:
+            friendFeedDriver.removeSongs(trans, userName, Collections.singletonList(songId));
+            followers = findFollowers(trans, userName);
+            queryStatus = new DbQueryStatus("Song removed from playlist",
+                DbQueryExecResult.QUERY_OK);
         }
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        queryStatus = new DbQueryStatus("Relationship not removed from DB",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    if (followers != null && queryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      // once the change is committed, so a load that starts after this sees it
+      songRecommender.invalidateWithFollowers(userName, followers);
+    }
+    return queryStatus;
+  }
 
-        // check song exists
-        StatementResult resultSong = trans.run(
-            "MATCH (nSong:song {songId: $songId}) RETURN nSong",
-            parameters("songId", songId));
-        if (!resultSong.hasNext()) { // both users in db
-          return new DbQueryStatus("Song doesn't exist in the DB",
-              DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
-        }
+  /**
+   * Adds many songs to the user's favourites playlist in one transaction. Songs that are already
+   * in the playlist or were deleted are skipped
+   *
+   * @param userName the user liking the songs
+   * @param songIds  the songs to like
+   * @return the ids of the songs that were added to the playlist as data
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus likeSongs(String userName, List<String> songIds) {
+    DbQueryStatus queryStatus;
+    List<String> followers = null;
+    // check params
+    if (userName == null || songIds == null || userName.isEmpty()) {
+      return new DbQueryStatus("Missing Parameters", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    } else if (songIds.size() > MAX_BULK_SONGS) {
+      return new DbQueryStatus("Too many songs are passed in",
+          DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
 
-        // check relationship exists
-        StatementResult resultRelationship = trans.run(
-            "MATCH (nPlaylist:playlist { plName: $plName }) "
-                + " MATCH (nSong:song {songId: $songId}) "
-                + " RETURN EXISTS ((nPlaylist)-[:includes]->(nSong)) AS rl_exists",
-            parameters("plName", userName + "-favorites", "songId", songId));
-        if (!resultRelationship.next().get("rl_exists", false)) { // if relationship doesn't exist
-          return new DbQueryStatus("Relationship doesn't exist in the DB",
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        // find the songs that aren't deleted or liked yet, then like them all
+        StatementResult result = trans.run(
+            "OPTIONAL MATCH (nUser:profile {userName: $userName}) "
+                + " OPTIONAL MATCH (nPlaylist:playlist {plName: $plName}) "
+                + " OPTIONAL MATCH (nDeleted:song {deleted: true}) WHERE nDeleted.songId IN $songIds "
+                + " WITH nUser, nPlaylist, collect(nDeleted.songId) AS deletedIds "
+                + " WITH nUser, nPlaylist, [songId IN $songIds WHERE nPlaylist IS NOT NULL "
+                + "   AND NOT songId IN deletedIds "
+                + "   AND NOT EXISTS ((nPlaylist)-[:includes]->(:song {songId: songId}))] AS newIds "
+                + " FOREACH (songId IN CASE WHEN nUser IS NULL THEN [] ELSE newIds END | "
+                + "   MERGE (nSong:song {songId: songId}) "
+                + "   MERGE (nPlaylist)-[:includes]->(nSong) "
+                + "   FOREACH (ignored IN CASE WHEN $outbox THEN [1] ELSE [] END | "
+                + "     CREATE (:favouritesOutbox {key: $key + '-' + songId, songId: songId, "
+                + "       delta: 1, createdAt: timestamp()}))) "
+                + " RETURN nUser IS NOT NULL AS userExists, nPlaylist IS NOT NULL AS playlistExists, "
+                + " newIds",
+            parameters("userName", userName, "plName", userName + "-favorites", "songIds",
+                distinct(songIds), "outbox", outboxEnabled, "key", UUID.randomUUID().toString()));
+        Record record = result.single();
+        if (!record.get("userExists").asBoolean()) {
+          queryStatus = new DbQueryStatus("User doesn't exist in the DB",
               DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+        } else if (!record.get("playlistExists").asBoolean()) {
+          queryStatus = new DbQueryStatus("Songs couldn't be added to the playlist",
+              DbQueryExecResult.QUERY_ERROR_GENERIC);
+        } else {
+          List<String> newIds = record.get("newIds").asList(Values.ofString());
+          friendFeedDriver.addSongs(trans, userName, newIds);
+          if (!newIds.isEmpty()) {
+            followers = findFollowers(trans, userName);
+          }
+          queryStatus = new DbQueryStatus("Songs added to playlist", DbQueryExecResult.QUERY_OK);
+          queryStatus.setData(newIds);
         }
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        queryStatus = new DbQueryStatus("Relationships not added to DB",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    if (followers != null && queryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      // once the change is committed, so a load that starts after this sees it
+      songRecommender.invalidateWithFollowers(userName, followers);
+    }
+    return queryStatus;
+  }
+
+  /**
+   * Removes many songs from the user's favourites playlist in one transaction. Songs that aren't
+   * in the playlist are skipped, and songs no playlist includes anymore are removed
+   *
+   * @param userName the user unliking the songs
+   * @param songIds  the songs to unlike
+   * @return the ids of the songs that were removed from the playlist as data
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus unlikeSongs(String userName, List<String> songIds) {
+    DbQueryStatus queryStatus;
+    List<String> followers = null;
+    // check params
+    if (userName == null || songIds == null || userName.isEmpty()) {
+      return new DbQueryStatus("Missing Parameters", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    } else if (songIds.size() > MAX_BULK_SONGS) {
+      return new DbQueryStatus("Too many songs are passed in",
+          DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
 
-        // check relationship
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
         StatementResult result = trans.run(
-            "MATCH (nPlaylist:playlist { plName: $plName }) "
-                + " MATCH (nSong:song {songId: $songId}) "
-                + " MATCH (nPlaylist)-[r:includes]->(nSong) "
-                + " RETURN nPlaylist.plName, type(r), nSong.songId ",
-            parameters("plName", userName + "-favorites", "songId", songId));
-
-        // if exists, remove
-        if (!result.hasNext()) { // both users in db
-          queryStatus = new DbQueryStatus("Relationship already not DB",
-              DbQueryExecResult.QUERY_ERROR_GENERIC);
-        } else { // relationship does exist, remove it
-          result = trans.run(
-              "MATCH (nPlaylist:playlist { plName: $plName }) "
-                  + " MATCH (nSong:song {songId: $songId}) "
-                  + " MATCH (nPlaylist)-[r:includes]->(nSong) "
-                  + " DELETE r",
-              parameters("plName", userName + "-favorites", "songId", songId));
-          queryStatus = new DbQueryStatus("Song removed from playlist",
+            "OPTIONAL MATCH (nUser:profile {userName: $userName}) "
+                + " OPTIONAL MATCH (nPlaylist:playlist {plName: $plName})-[r:includes]->(nSong:song) "
+                + "   WHERE nUser IS NOT NULL AND nSong.songId IN $songIds "
+                + " WITH nUser, collect(r) AS rels, collect(nSong) AS nSongs, "
+                + "   collect(nSong.songId) AS removedIds "
+                + " FOREACH (r IN rels | DELETE r) "
+                + " FOREACH (songId IN CASE WHEN $outbox THEN removedIds ELSE [] END | "
+                + "   CREATE (:favouritesOutbox {key: $key + '-' + songId, songId: songId, "
+                + "     delta: -1, createdAt: timestamp()})) "
+                + " WITH nUser, nSongs, removedIds "
+                + " FOREACH (s IN [s IN nSongs WHERE s.deleted IS NULL AND NOT ()-[:includes]->(s)] | "
+                + "   DELETE s) "
+                + " RETURN nUser IS NOT NULL AS userExists, removedIds",
+            parameters("userName", userName, "plName", userName + "-favorites", "songIds",
+                distinct(songIds), "outbox", outboxEnabled, "key", UUID.randomUUID().toString()));
+        Record record = result.single();
+        if (!record.get("userExists").asBoolean()) {
+          queryStatus = new DbQueryStatus("User doesn't exist in the DB",
+              DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+        } else {
+          List<String> removedIds = record.get("removedIds").asList(Values.ofString());
+          friendFeedDriver.removeSongs(trans, userName, removedIds);
+          if (!removedIds.isEmpty()) {
+            followers = findFollowers(trans, userName);
+          }
+          queryStatus = new DbQueryStatus("Songs removed from playlist",
               DbQueryExecResult.QUERY_OK);
+          queryStatus.setData(removedIds);
         }
-
-        // check if song has no connections
-        result = trans.run(
-            "MATCH (nSong:song {songId: $songId}) "
-                + " MATCH (nSong) WHERE NOT ()-[:includes]->(nSong) "
-                + " DELETE (nSong)",
-            parameters("songId", songId));
-
         trans.success();
-        // check relationship created
       } catch (Exception e) {
         e.printStackTrace();
-        queryStatus = new DbQueryStatus("Relationship not removed from DB",
+        queryStatus = new DbQueryStatus("Relationships not removed from DB",
             DbQueryExecResult.QUERY_ERROR_GENERIC);
       }
       session.close();
     }
+    if (followers != null && queryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      // once the change is committed, so a load that starts after this sees it
+      songRecommender.invalidateWithFollowers(userName, followers);
+    }
     return queryStatus;
   }
 
+  /**
+   * Returns who follows the user, as part of the transaction that changed the user's favourites, so
+   * their recommendations can be dropped too
+   */
+  private static List<String> findFollowers(Transaction trans, String userName) {
+    return trans.run(
+        "MATCH (nFollower:profile)-[:follows]->(:profile {userName: $userName}) "
+            + " RETURN collect(nFollower.userName) AS followers",
+        parameters("userName", userName)).single().get("followers").asList(Values.ofString());
+  }
+
+  private static List<String> distinct(List<String> songIds) {
+    Set<String> distinctIds = new LinkedHashSet<>();
+    for (String songId : songIds) {
+      if (songId != null && !songId.isEmpty()) {
+        distinctIds.add(songId);
+      }
+    }
+    return new ArrayList<>(distinctIds);
+  }
+
+  /**
+   * Marks the song as deleted. It is left out of every query and can't be liked from then on,
+   * and its relationships are removed in batches by sweepDeletedSong, so deleting a song in many
+   * playlists doesn't hold one huge transaction
+   *
+   * @param songId the song to delete
+   */
   @Override
+  @Timed("profile.neo4j")
   public DbQueryStatus deleteSongFromDb(String songId) {
     DbQueryStatus queryStatus = new DbQueryStatus("Song removed from DB",
         DbQueryExecResult.QUERY_OK);
@@ -175,14 +401,14 @@ public class PlaylistDriverImpl implements PlaylistDriver {
               DbQueryExecResult.QUERY_OK);
         }
 
-        // remove song and relationships
-        StatementResult result = trans.run(
+        // mark the song, the sweeper removes it and its relationships
+        trans.run(
             "MATCH (nSong:song {songId: $songId}) "
-                + " DETACH DELETE (nSong)",
+                + " SET nSong.deleted = true, "
+                + " nSong.deletedAt = coalesce(nSong.deletedAt, timestamp())",
             parameters("songId", songId));
 
         trans.success();
-        // check relationship created
       } catch (Exception e) {
         e.printStackTrace();
         queryStatus = new DbQueryStatus("Song not removed from DB",
@@ -192,4 +418,170 @@ public class PlaylistDriverImpl implements PlaylistDriver {
     }
     return queryStatus;
   }
+
+  /**
+   * Removes up to batchSize playlist relationships of the song that was deleted first, and the song
+   * itself once it has none left, in one transaction. How many have been removed so far is kept on
+   * the song, and since the song stays marked until it is gone, a sweep that was interrupted by a
+   * restart carries on from where it stopped. The song is taken out of the friend feeds of the
+   * playlists' owners' followers in the same transaction
+   *
+   * @param batchSize the most relationships to remove
+   * @return the "songId", the relationships "removed" by this call and "removedTotal" so far as
+   *         data, or no data if no song is waiting to be removed
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus sweepDeletedSong(int batchSize) {
+    DbQueryStatus queryStatus;
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        StatementResult result = trans.run(
+            "MATCH (nSong:song) WHERE nSong.deleted = true "
+                + " WITH nSong ORDER BY nSong.deletedAt LIMIT 1 "
+                + " OPTIONAL MATCH (nPlaylist:playlist)-[r:includes]->(nSong) "
+                + " WITH nSong, nPlaylist, r LIMIT $batchSize "
+                + " OPTIONAL MATCH (nOwner:profile)-[:created]->(nPlaylist) "
+                + " WITH nSong, collect(r) AS rels, collect(DISTINCT nOwner.userName) AS owners "
+                + " FOREACH (r IN rels | DELETE r) "
+                + " SET nSong.includesRemoved = coalesce(nSong.includesRemoved, 0) + size(rels) "
+                + " WITH nSong, nSong.songId AS songId, size(rels) AS removed, "
+                + "   nSong.includesRemoved AS removedTotal, owners "
+                // fewer than a full batch means that was the last of them
+                + " FOREACH (s IN CASE WHEN removed < $batchSize THEN [nSong] ELSE [] END | "
+                + "   DETACH DELETE s) "
+                + " RETURN songId, removed, removedTotal, owners",
+            parameters("batchSize", batchSize));
+        queryStatus = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+        if (result.hasNext()) {
+          Record record = result.next();
+          friendFeedDriver.removeDeletedSong(trans, record.get("songId").asString(),
+              record.get("owners").asList(Values.ofString()));
+          Map<String, Object> progress = new HashMap<>();
+          progress.put("songId", record.get("songId").asString());
+          progress.put("removed", record.get("removed").asLong());
+          progress.put("removedTotal", record.get("removedTotal").asLong());
+          queryStatus.setData(progress);
+        }
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        queryStatus = new DbQueryStatus("Deleted song not swept from DB",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    return queryStatus;
+  }
+
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus getAllSongIds(int limit) {
+    DbQueryStatus queryStatus;
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        StatementResult result = trans.run(
+            "MATCH (nSong:song) WHERE nSong.deleted IS NULL "
+                + " RETURN nSong.songId AS songId LIMIT $limit",
+            parameters("limit", limit));
+        List<String> songIds = new ArrayList<>();
+        while (result.hasNext()) {
+          songIds.add(result.next().get("songId").asString());
+        }
+        queryStatus = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+        queryStatus.setData(songIds);
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        queryStatus = new DbQueryStatus("Songs not retrieved from DB",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    return queryStatus;
+  }
+
+  /**
+   * Returns the oldest favourite count changes in the outbox, with how many are waiting in total
+   *
+   * @param limit the most changes to return
+   * @return "pending" and "updates", each update with its "key", "songId" and "delta", as data
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus getFavouritesOutbox(int limit) {
+    DbQueryStatus queryStatus;
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        long pending = trans.run("MATCH (nUpdate:favouritesOutbox) RETURN count(nUpdate) AS pending")
+            .single().get("pending").asLong();
+        StatementResult result = trans.run(
+            "MATCH (nUpdate:favouritesOutbox) "
+                + " RETURN nUpdate.key AS key, nUpdate.songId AS songId, nUpdate.delta AS delta "
+                + " ORDER BY nUpdate.createdAt LIMIT $limit",
+            parameters("limit", limit));
+        List<Map<String, Object>> updates = new ArrayList<>();
+        while (result.hasNext()) {
+          updates.add(result.next().asMap());
+        }
+        Map<String, Object> outbox = new HashMap<>();
+        outbox.put("pending", pending);
+        outbox.put("updates", updates);
+        queryStatus = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+        queryStatus.setData(outbox);
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        queryStatus = new DbQueryStatus("Outbox not retrieved from DB",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    return queryStatus;
+  }
+
+  /**
+   * Settles a batch of favourite count changes that was sent to the Songs Microservice, in one
+   * transaction: the delivered changes are removed from the outbox, and the rejected ones get a
+   * failed attempt counted, so they are sent again, or are removed once they have been tried
+   * maxAttempts times. If the transaction fails nothing changes, and the whole batch is sent again
+   *
+   * @param deliveredKeys the keys of the changes the Songs Microservice took
+   * @param rejectedKeys  the keys of the changes the Songs Microservice rejected
+   * @param maxAttempts   how many times a change is sent before it is given up on
+   * @return the number of rejected changes given up on as data
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus settleFavouritesOutbox(List<String> deliveredKeys,
+      List<String> rejectedKeys, int maxAttempts) {
+    DbQueryStatus queryStatus;
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        trans.run(
+            "UNWIND $keys AS key "
+                + " MATCH (nUpdate:favouritesOutbox {key: key}) "
+                + " DELETE nUpdate",
+            parameters("keys", deliveredKeys));
+        long dropped = trans.run(
+            "UNWIND $keys AS key "
+                + " MATCH (nUpdate:favouritesOutbox {key: key}) "
+                + " SET nUpdate.attempts = coalesce(nUpdate.attempts, 0) + 1 "
+                + " WITH nUpdate WHERE nUpdate.attempts >= $maxAttempts "
+                + " DELETE nUpdate "
+                + " RETURN count(*) AS dropped",
+            parameters("keys", rejectedKeys, "maxAttempts", maxAttempts)).single().get("dropped")
+            .asLong();
+        queryStatus = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+        queryStatus.setData(dropped);
+        trans.success();
+      } catch (Exception e) {
+        e.printStackTrace();
+        queryStatus = new DbQueryStatus("Outbox not updated in DB",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    return queryStatus;
+  }
 }
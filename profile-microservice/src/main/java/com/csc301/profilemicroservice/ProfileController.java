@@ -2,17 +2,22 @@ package com.csc301.profilemicroservice;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
-import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -30,17 +35,57 @@ public class ProfileController {
   public static final String KEY_USER_FULLNAME = "fullName";
   public static final String KEY_USER_PASSWORD = "password";
 
+  private static final String OUTBOX_FULL =
+      "Too many favourite updates are waiting to be sent, try again later";
+
+  // the types the Songs Microservice's answers are read into
+  private static final ParameterizedTypeReference<ApiResponse<FavouritesCounts>>
+      FAVOURITES_COUNTS_RESPONSE = new ParameterizedTypeReference<ApiResponse<FavouritesCounts>>() {
+      };
+  private static final ParameterizedTypeReference<ApiResponse<Object>> STATUS_RESPONSE =
+      new ParameterizedTypeReference<ApiResponse<Object>>() {
+      };
+
   @Autowired
   private final ProfileDriverImpl profileDriver;
 
   @Autowired
   private final PlaylistDriverImpl playlistDriver;
 
-  OkHttpClient client = new OkHttpClient();
+  // shared, pooled client for calls to the Songs Microservice
+  private final RestTemplate restTemplate;
+
+  private final String songServiceUrl;
+
+  private final SongTitleResolver songTitleResolver;
+
+  // the most favourite counts sent to the Songs Microservice in one call
+  private final int favouritesChunkSize;
+
+  // when enabled, sends favourite count changes to the Songs Microservice in the background
+  private final FavouritesOutboxDispatcher favouritesOutbox;
+
+  // caches each user's song recommendations until their friends or favourites change
+  private final SongRecommender songRecommender;
 
-  public ProfileController(ProfileDriverImpl profileDriver, PlaylistDriverImpl playlistDriver) {
+  // the precomputed friend feeds, read instead of the graph when the feed mode is on
+  private final FriendFeedDriverImpl friendFeedDriver;
+
+  public ProfileController(ProfileDriverImpl profileDriver, PlaylistDriverImpl playlistDriver,
+      RestTemplate restTemplate, @Value("${interservice.songService.url}") String songServiceUrl,
+      SongTitleResolver songTitleResolver,
+      @Value("${interservice.favourites.chunkSize:1000}") int favouritesChunkSize,
+      FavouritesOutboxDispatcher favouritesOutbox, SongRecommender songRecommender,
+      FriendFeedDriverImpl friendFeedDriver) {
     this.profileDriver = profileDriver;
     this.playlistDriver = playlistDriver;
+    this.restTemplate = restTemplate;
+    this.songServiceUrl = songServiceUrl;
+    this.songTitleResolver = songTitleResolver;
+    this.favouritesChunkSize = favouritesChunkSize;
+    this.favouritesOutbox = favouritesOutbox;
+    this.songRecommender = songRecommender;
+    this.friendFeedDriver = friendFeedDriver;
   }
 
   /**
@@ -55,11 +100,11 @@ public class ProfileController {
    */
   @RequestMapping(value = "/profile", method = RequestMethod.POST)
   public @ResponseBody
-  Map<String, Object> addProfile(@RequestParam Map<String, String> params,
+  ApiResponse<Object> addProfile(@RequestParam Map<String, String> params,
       HttpServletRequest request) {
 
-    Map<String, Object> response = new HashMap<String, Object>();
-    response.put("path", String.format("POST %s", Utils.getUrl(request)));
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("POST %s", Utils.getUrl(request)));
 
     String userName = params.get("userName");
     String fullName = params.get("fullName");
@@ -67,8 +112,8 @@ public class ProfileController {
 
     // call DbQueryStatus = createUserProfile(userName, fullName, password)
     DbQueryStatus dbQueryStatus = profileDriver.createUserProfile(userName, fullName, password);
-    response.put("message", dbQueryStatus.getMessage());
-    // call setResponseStatus(Map<String, Object> response, DbQueryExecResult dbQueryExecResult, Object data)
+    response.setMessage(dbQueryStatus.getMessage());
+    // call setResponseStatus(ApiResponse<Object> response, DbQueryExecResult dbQueryExecResult, Object data)
     return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
   }
 
@@ -84,16 +129,19 @@ public class ProfileController {
    */
   @RequestMapping(value = "/followFriend/{userName}/{friendUserName}", method = RequestMethod.PUT)
   public @ResponseBody
-  Map<String, Object> followFriend(@PathVariable("userName") String userName,
+  ApiResponse<Object> followFriend(@PathVariable("userName") String userName,
       @PathVariable("friendUserName") String friendUserName, HttpServletRequest request) {
 
-    Map<String, Object> response = new HashMap<String, Object>();
-    response.put("path", String.format("PUT %s", Utils.getUrl(request)));
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
 
     // call DbQueryStatus = profileDriver.followFriend(userName, friendUserName);
     DbQueryStatus dbQueryStatus = profileDriver.followFriend(userName, friendUserName);
-    response.put("message", dbQueryStatus.getMessage());
-    // call setResponseStatus(Map<String, Object> response, DbQueryExecResult dbQueryExecResult, Object data)
+    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      songRecommender.invalidate(userName);
+    }
+    response.setMessage(dbQueryStatus.getMessage());
+    // call setResponseStatus(ApiResponse<Object> response, DbQueryExecResult dbQueryExecResult, Object data)
     return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
   }
 
@@ -109,23 +157,27 @@ public class ProfileController {
    */
   @RequestMapping(value = "/unfollowFriend/{userName}/{friendUserName}", method = RequestMethod.PUT)
   public @ResponseBody
-  Map<String, Object> unfollowFriend(@PathVariable("userName") String userName,
+  ApiResponse<Object> unfollowFriend(@PathVariable("userName") String userName,
       @PathVariable("friendUserName") String friendUserName, HttpServletRequest request) {
 
-    Map<String, Object> response = new HashMap<String, Object>();
-    response.put("path", String.format("PUT %s", Utils.getUrl(request)));
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
 
     // call DbQueryStatus = profileDriver.unfollowFriend(userName, friendUserName);
     DbQueryStatus dbQueryStatus = profileDriver.unfollowFriend(userName, friendUserName);
-    response.put("message", dbQueryStatus.getMessage());
-    // call setResponseStatus(Map<String, Object> response, DbQueryExecResult dbQueryExecResult, Object data)
+    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      songRecommender.invalidate(userName);
+    }
+    response.setMessage(dbQueryStatus.getMessage());
+    // call setResponseStatus(ApiResponse<Object> response, DbQueryExecResult dbQueryExecResult, Object data)
     return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
   }
 
   /**
    * PUT: Likes song and adds it to the user's playlist.
    * <p>
-   * Calls the Songs Microservice to change the number of likes the song has.
+   * Changes the number of likes the song has through the favourites outbox, or by calling the
+   * Songs Microservice right away if the outbox is disabled.
    *
    * @param userName username of profile who's playlist to add song to
    * @param songId   id of the song to add to the user's playlist
@@ -134,17 +186,23 @@ public class ProfileController {
    */
   @RequestMapping(value = "/likeSong/{userName}/{songId}", method = RequestMethod.PUT)
   public @ResponseBody
-  Map likeSong(@PathVariable("userName") String userName,
+  ApiResponse<Object> likeSong(@PathVariable("userName") String userName,
       @PathVariable("songId") String songId, HttpServletRequest request) {
     DbQueryStatus dbQueryStatus = new DbQueryStatus("Song added to playlist",
         DbQueryExecResult.QUERY_OK);
 
-    Map<String, Object> response = new HashMap<String, Object>();
-    response.put("path", String.format("PUT %s", Utils.getUrl(request)));
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
+    if (favouritesOutbox.isFull()) {
+      response.setMessage(OUTBOX_FULL);
+      return Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
+    }
 
+    // with the outbox on, the favourite count change is written with the like and sent later
     dbQueryStatus = playlistDriver.likeSong(userName, songId);
-    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK
-        && dbQueryStatus.getMessage().compareTo("Relationship already exist in the DB") != 0) {
+    boolean liked = dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK
+        && dbQueryStatus.getMessage().compareTo("Relationship already exist in the DB") != 0;
+    if (liked && !favouritesOutbox.isEnabled()) {
       try {
         if (callDecrementSongAPI(songId, false)) { // if true, song liked
           dbQueryStatus.setMessage("Song added to playlist");
@@ -155,19 +213,18 @@ public class ProfileController {
         dbQueryStatus = new DbQueryStatus(
             "Connection to Songs updateSongFavouritesCount API unavailable",
             DbQueryExecResult.QUERY_ERROR_GENERIC);
-        response.put("message", dbQueryStatus.getMessage());
       }
     }
-    response.put("message", dbQueryStatus.getMessage());
+    response.setMessage(dbQueryStatus.getMessage());
     return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
-
   }
 
   /**
    * PUT: Unlikes song and removes it from the user's playlist, assuming the user already has it in
    * their playlist.
    * <p>
-   * Calls the Songs Microservice to change the number of likes the song has.
+   * Changes the number of likes the song has through the favourites outbox, or by calling the
+   * Songs Microservice right away if the outbox is disabled.
    *
    * @param userName username of profile who's playlist to remove song from
    * @param songId   id of the song to remove from the user's playlist
@@ -176,52 +233,141 @@ public class ProfileController {
    */
   @RequestMapping(value = "/unlikeSong/{userName}/{songId}", method = RequestMethod.PUT)
   public @ResponseBody
-  Map<String, Object> unlikeSong(@PathVariable("userName") String userName,
+  ApiResponse<Object> unlikeSong(@PathVariable("userName") String userName,
       @PathVariable("songId") String songId, HttpServletRequest request) {
-    DbQueryStatus dbQueryStatus = new DbQueryStatus("Default",
-        DbQueryExecResult.QUERY_OK);
 
-    Map<String, Object> response = new HashMap<String, Object>();
-    response.put("path", String.format("PUT %s", Utils.getUrl(request)));
-    try {
-      if (callDecrementSongAPI(songId, true)) { // if true, song exists and unliked
-        // insert into db
-        dbQueryStatus = playlistDriver.unlikeSong(userName, songId);
-        response.put("message", dbQueryStatus.getMessage());
-      } else { // song doesnt exist or issue when unliking
-        response.put("message", "Song does not exist or could not be unliked");
-      }
-    } catch (RestClientException connectionUnavailable) {
-      dbQueryStatus = new DbQueryStatus(
-          "Connection to Songs updateSongFavouritesCount API unavailable",
-          DbQueryExecResult.QUERY_ERROR_GENERIC);
-      response.put("message", dbQueryStatus.getMessage());
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
+    if (favouritesOutbox.isFull()) {
+      response.setMessage(OUTBOX_FULL);
+      return Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
     }
 
-    dbQueryStatus = playlistDriver.unlikeSong(userName, songId);
-    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+    // only decrease the count if the song was actually in the playlist
+    DbQueryStatus dbQueryStatus = playlistDriver.unlikeSong(userName, songId);
+    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK
+        && !favouritesOutbox.isEnabled()) {
       try {
-        if (callDecrementSongAPI(songId, false)) { // if true, song liked
+        if (callDecrementSongAPI(songId, true)) { // if true, song exists and unliked
           dbQueryStatus.setMessage("Song removed from playlist");
-        } else { // song doesnt exist or issue when liking
+        } else { // song doesnt exist or issue when unliking
           dbQueryStatus.setMessage("Song does not exist or could not be unliked");
         }
       } catch (RestClientException connectionUnavailable) {
         dbQueryStatus = new DbQueryStatus(
             "Connection to Songs updateSongFavouritesCount API unavailable",
             DbQueryExecResult.QUERY_ERROR_GENERIC);
-        response.put("message", dbQueryStatus.getMessage());
       }
     }
-    response.put("message", dbQueryStatus.getMessage());
+    response.setMessage(dbQueryStatus.getMessage());
     return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
+  }
+
+  /**
+   * PUT: Likes many songs at once and adds them to the user's playlist, e.g. when importing a
+   * library from another platform. Songs that are already liked are skipped.
+   * <p>
+   * Changes the number of likes the songs have through the favourites outbox, or by calling the
+   * Songs Microservice once per chunk of songs if the outbox is disabled.
+   *
+   * @param userName username of profile who's playlist to add the songs to
+   * @param songIds  JSON array of the ids of the songs to add to the user's playlist
+   * @param request  the request sent to this API
+   * @return "status":"OK" if request was successfully, with the ids of the songs that were added
+   */
+  @RequestMapping(value = "/likeSongs/{userName}", method = RequestMethod.PUT)
+  public @ResponseBody
+  ApiResponse<Object> likeSongs(@PathVariable("userName") String userName,
+      @RequestBody List<String> songIds, HttpServletRequest request) {
+
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
+
+    if (favouritesOutbox.isFull()) {
+      response.setMessage(OUTBOX_FULL);
+      return Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
+    }
+
+    // one transaction for all the songs
+    DbQueryStatus dbQueryStatus = playlistDriver.likeSongs(userName, songIds);
+    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK
+        && !favouritesOutbox.isEnabled()) {
+      dbQueryStatus = updateSongsFavourites(dbQueryStatus, 1, "liked");
+    }
+    response.setMessage(dbQueryStatus.getMessage());
+    return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+        dbQueryStatus.getData());
+  }
+
+  /**
+   * PUT: Unlikes many songs at once and removes them from the user's playlist. Songs that aren't
+   * liked are skipped.
+   * <p>
+   * Changes the number of likes the songs have through the favourites outbox, or by calling the
+   * Songs Microservice once per chunk of songs if the outbox is disabled.
+   *
+   * @param userName username of profile who's playlist to remove the songs from
+   * @param songIds  JSON array of the ids of the songs to remove from the user's playlist
+   * @param request  the request sent to this API
+   * @return "status":"OK" if request was successfully, with the ids of the songs that were removed
+   */
+  @RequestMapping(value = "/unlikeSongs/{userName}", method = RequestMethod.PUT)
+  public @ResponseBody
+  ApiResponse<Object> unlikeSongs(@PathVariable("userName") String userName,
+      @RequestBody List<String> songIds, HttpServletRequest request) {
+
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
+
+    if (favouritesOutbox.isFull()) {
+      response.setMessage(OUTBOX_FULL);
+      return Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
+    }
 
+    // only the songs that were actually unliked have their count decreased
+    DbQueryStatus dbQueryStatus = playlistDriver.unlikeSongs(userName, songIds);
+    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK
+        && !favouritesOutbox.isEnabled()) {
+      dbQueryStatus = updateSongsFavourites(dbQueryStatus, -1, "unliked");
+    }
+    response.setMessage(dbQueryStatus.getMessage());
+    return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+        dbQueryStatus.getData());
+  }
+
+  /**
+   * Changes the number of likes of the songs that were liked or unliked in the playlist
+   *
+   * @param dbQueryStatus the result of the playlist change, with the ids of the songs as data
+   * @param delta         1 for a like, -1 for an unlike
+   * @param action        "liked" or "unliked", for the message
+   */
+  private DbQueryStatus updateSongsFavourites(DbQueryStatus dbQueryStatus, long delta,
+      String action) {
+    List<String> songIds = (List<String>) dbQueryStatus.getData();
+    try {
+      int updated = 0;
+      for (int i = 0; i < songIds.size(); i += favouritesChunkSize) {
+        updated += callUpdateSongsFavouritesAPI(
+            songIds.subList(i, Math.min(i + favouritesChunkSize, songIds.size())), delta);
+      }
+      if (updated < songIds.size()) { // songs dont exist or issue when updating
+        dbQueryStatus.setMessage((songIds.size() - updated)
+            + " songs do not exist or could not be " + action);
+      }
+    } catch (RestClientException connectionUnavailable) {
+      dbQueryStatus = new DbQueryStatus(
+          "Connection to Songs updateSongsFavouritesCount API unavailable",
+          DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    return dbQueryStatus;
   }
 
   /**
    * GET: Gets the user's friends song lists.
    * <p>
-   * Calls the Songs Microservice to get the titles of each song.
+   * Reads the user's friend feed when the feed mode is on, and walks the graph otherwise. Calls the
+   * Songs Microservice to get the titles of each song.
    *
    * @param userName the user who's friends to find
    * @param request  the request sent to this API
@@ -229,13 +375,14 @@ public class ProfileController {
    */
   @RequestMapping(value = "/getAllFriendFavouriteSongTitles/{userName}", method = RequestMethod.GET)
   public @ResponseBody
-  Map<String, Object> getAllFriendFavouriteSongTitles(@PathVariable("userName") String userName,
+  ApiResponse<Object> getAllFriendFavouriteSongTitles(@PathVariable("userName") String userName,
       HttpServletRequest request) {
 
-    Map<String, Object> response = new HashMap<String, Object>();
-    response.put("path", String.format("PUT %s", Utils.getUrl(request)));
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
 
-    DbQueryStatus dbQueryStatus = profileDriver.getAllSongFriendsLike(userName);
+    DbQueryStatus dbQueryStatus = friendFeedDriver.isEnabled()
+        ? friendFeedDriver.getFriendFeed(userName) : profileDriver.getAllSongFriendsLike(userName);
     if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
       dbQueryStatus.setData(null);
     } else {
@@ -243,15 +390,74 @@ public class ProfileController {
         dbQueryStatus
             .setData(getAllSongTitlesAPI((Map<String, List<String>>) dbQueryStatus.getData()));
       } catch (RestClientException connectionUnavailable) {
-        dbQueryStatus = new DbQueryStatus("Connection to Songs getSongTitleById API unavailable",
+        dbQueryStatus = new DbQueryStatus("Connection to Songs getSongTitlesByIds API unavailable",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+    }
+    response.setMessage(dbQueryStatus.getMessage());
+    return Utils
+        .setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+  }
+
+  /**
+   * GET: Recommends songs to the user from the playlists of the profiles they follow.
+   * <p>
+   * Songs are ranked by how many of the friends have them, and songs the user already likes are
+   * left out. Calls the Songs Microservice to get the titles of the songs.
+   *
+   * @param userName the user to recommend songs to
+   * @param limit    the most songs to return, 10 by default
+   * @param request  the request sent to this API
+   * @return "status":"OK" if request was successfully, with the "songId", "songName" and number of
+   *     "friends" of each song
+   */
+  @RequestMapping(value = "/getSongRecommendations/{userName}", method = RequestMethod.GET)
+  public @ResponseBody
+  ApiResponse<Object> getSongRecommendations(@PathVariable("userName") String userName,
+      @RequestParam(value = "limit", defaultValue = "10") int limit, HttpServletRequest request) {
+
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("GET %s", Utils.getUrl(request)));
+
+    DbQueryStatus dbQueryStatus = songRecommender.getRecommendations(userName, limit);
+    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      try {
+        dbQueryStatus.setData(addSongTitles((List<Map<String, Object>>) dbQueryStatus.getData()));
+      } catch (RestClientException connectionUnavailable) {
+        dbQueryStatus = new DbQueryStatus("Connection to Songs getSongTitlesByIds API unavailable",
             DbQueryExecResult.QUERY_ERROR_GENERIC);
       }
     }
-    response.put("message", dbQueryStatus.getMessage());
+    response.setMessage(dbQueryStatus.getMessage());
     return Utils
         .setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
   }
 
+  /**
+   * Copies the recommendations with the title of each song added. Songs whose title can't be
+   * found, e.g. because they were deleted, are left out
+   */
+  private List<Map<String, Object>> addSongTitles(List<Map<String, Object>> recommendations)
+      throws RestClientException {
+    Set<String> songIds = new LinkedHashSet<>();
+    for (Map<String, Object> recommendation : recommendations) {
+      songIds.add((String) recommendation.get("songId"));
+    }
+    Map<String, String> titles = songTitleResolver.getSongTitles(songIds);
+    List<Map<String, Object>> titled = new ArrayList<>();
+    for (Map<String, Object> recommendation : recommendations) {
+      String title = titles.get(recommendation.get("songId"));
+      if (title != null) {
+        Map<String, Object> song = new LinkedHashMap<>();
+        song.put("songId", recommendation.get("songId"));
+        song.put("songName", title);
+        song.put("friends", recommendation.get("friends"));
+        titled.add(song);
+      }
+    }
+    return titled;
+  }
+
   /**
    * PUT: Removes a song from all playlists, deleting it from the DB.
    * <p>
@@ -263,79 +469,66 @@ public class ProfileController {
    */
   @RequestMapping(value = "/deleteAllSongsFromDb/{songId}", method = RequestMethod.PUT)
   public @ResponseBody
-  Map<String, Object> deleteAllSongsFromDb(@PathVariable("songId") String songId,
+  ApiResponse<Object> deleteAllSongsFromDb(@PathVariable("songId") String songId,
       HttpServletRequest request) {
 
-    Map<String, Object> response = new HashMap<String, Object>();
-    response.put("path", String.format("PUT %s", Utils.getUrl(request)));
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
 
     DbQueryStatus dbQueryStatus = playlistDriver.deleteSongFromDb(songId);
-    response.put("message", dbQueryStatus.getMessage());
+    if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      songTitleResolver.evictTitle(songId);
+    }
+    response.setMessage(dbQueryStatus.getMessage());
 
     return Utils
         .setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
   }
 
-  private boolean callDecrementSongAPI(String songId, boolean decrement)
+  /**
+   * Changes the number of likes of many songs in one call to the Songs Microservice
+   *
+   * @return how many of the songs were updated
+   */
+  private int callUpdateSongsFavouritesAPI(List<String> songIds, long delta)
       throws RestClientException {
-    RestTemplate restTemplate = new RestTemplate();
+    final String uri = songServiceUrl + "/updateSongsFavouritesCount";
+    Map<String, Long> deltas = new HashMap<>();
+    for (String songId : songIds) {
+      deltas.put(songId, delta);
+    }
+
+    ResponseEntity<ApiResponse<FavouritesCounts>> result = restTemplate
+        .exchange(uri, HttpMethod.PUT, new HttpEntity<>(deltas), FAVOURITES_COUNTS_RESPONSE);
+    // { "status" : "OK", "data" : { "updated" : 2, "skipped" : 0 } }
+    if (!result.getBody().isOk()) {
+      return 0;
+    }
+    return result.getBody().getData().getUpdated();
+  }
 
-    final String uri = "http://localhost:3001/updateSongFavouritesCount/{songId}?shouldDecrement={decrement}";
+  private boolean callDecrementSongAPI(String songId, boolean decrement)
+      throws RestClientException {
+    final String uri =
+        songServiceUrl + "/updateSongFavouritesCount/{songId}?shouldDecrement={decrement}";
     // add pathVariables
     Map<String, String> uriVariables = new HashMap<>();
     uriVariables.put("songId", songId);
     uriVariables.put("decrement", String.valueOf(decrement));
 
-    // creates object type to use as return type in exchange
-    ParameterizedTypeReference<Map<String, Object>> typeRef =
-        new ParameterizedTypeReference<Map<String, Object>>() {
-        };
     // requestEntity null because our parameters are PathVariables, put in as uriVariables
     // if not we use
     //    HttpHeaders headers = new HttpHeaders();
     //    headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
     //    HttpEntity<String> entity = new HttpEntity<String>("parameters", headers);
-    ResponseEntity<Map<String, Object>> result = restTemplate
-        .exchange(uri, HttpMethod.PUT, null, typeRef, uriVariables);
-    return (result.getBody().get("status").toString().compareTo("OK") == 0);
+    ResponseEntity<ApiResponse<Object>> result = restTemplate
+        .exchange(uri, HttpMethod.PUT, null, STATUS_RESPONSE, uriVariables);
+    return result.getBody().isOk();
   }
 
   private Map<String, List<String>> getAllSongTitlesAPI(Map<String, List<String>> idLists)
       throws RestClientException {
-    Map<String, List<String>> titleLists = new HashMap<>();
-    // loop through users and add to map
-    for (String user : idLists.keySet()) {
-      List<String> songIds = idLists.get(user);
-      List<String> songTitles = new ArrayList<>();
-      // loop through songIds and add title to list
-      for (String songId : songIds) {
-        String title = getSongTitlesAPI(songId);
-        if (title != null) {
-          songTitles.add(getSongTitlesAPI(songId));
-        }
-      }
-      titleLists.put(user, songTitles);
-    }
-    return titleLists;
-  }
-
-  private String getSongTitlesAPI(String songId) throws RestClientException {
-    RestTemplate restTemplate = new RestTemplate();
-    final String uri = "http://localhost:3001/getSongTitleById/{songId}";
-    // add pathVariables
-    Map<String, String> uriVariables = new HashMap<>();
-    uriVariables.put("songId", songId);
-
-    // creates object type to use as return type in exchange
-    ParameterizedTypeReference<Map<String, Object>> typeRef =
-        new ParameterizedTypeReference<Map<String, Object>>() {
-        };
-    ResponseEntity<Map<String, Object>> result = restTemplate
-        .exchange(uri, HttpMethod.GET, null, typeRef, uriVariables);
-    // { "status" : "OK", "data" : "Never going to give you up" }
-    return (result.getBody().get("status").toString().compareTo("OK") == 0 ? result.getBody()
-        .get("data").toString() : null);
-
+    return songTitleResolver.getAllSongTitles(idLists);
   }
 
   @ControllerAdvice
@@ -343,12 +536,12 @@ public class ProfileController {
 
     @ExceptionHandler(NoHandlerFoundException.class)
     public @ResponseBody
-    Map<String, Object> handleError404(HttpServletRequest request, Exception e) {
+    ApiResponse<Object> handleError404(HttpServletRequest request, Exception e) {
       DbQueryStatus dbQueryStatus = new DbQueryStatus("No handler found for path",
           DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
-      Map<String, Object> response = new HashMap<String, Object>();
-      response.put("path", String.format("POST %s", Utils.getUrl(request)));
-      response.put("message", dbQueryStatus.getMessage());
+      ApiResponse<Object> response =
+          new ApiResponse<>(String.format("POST %s", Utils.getUrl(request)));
+      response.setMessage(dbQueryStatus.getMessage());
       return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
     }
   }
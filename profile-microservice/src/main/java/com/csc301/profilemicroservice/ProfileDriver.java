@@ -9,4 +9,6 @@ public interface ProfileDriver {
   DbQueryStatus unfollowFriend(String userName, String frndUserName);
 
   DbQueryStatus getAllSongFriendsLike(String userName);
+
+  DbQueryStatus getSongRecommendations(String userName, int limit);
 }
\ No newline at end of file
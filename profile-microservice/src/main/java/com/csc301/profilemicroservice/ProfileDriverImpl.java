@@ -2,8 +2,10 @@ package com.csc301.profilemicroservice;
 
 import static org.neo4j.driver.v1.Values.parameters;
 
+import io.micrometer.core.annotation.Timed;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.neo4j.driver.v1.Driver;
@@ -11,17 +13,33 @@ import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
 import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Values;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class ProfileDriverImpl implements ProfileDriver {
 
-  Driver driver = ProfileMicroserviceApplication.driver;
+  /**
+   * The most songs that can be recommended to a user at once
+   */
+  public static final int MAX_RECOMMENDATIONS = 100;
 
-  public static void InitProfileDb() {
+  private final Driver driver;
+
+  /**
+   * Keeps the users' friend feeds up to date with follows and unfollows, when the feed mode is on
+   */
+  private final FriendFeedDriverImpl friendFeedDriver;
+
+  public ProfileDriverImpl(Driver driver, FriendFeedDriverImpl friendFeedDriver) {
+    this.driver = driver;
+    this.friendFeedDriver = friendFeedDriver;
+  }
+
+  public void InitProfileDb() {
     String queryStr;
 
-    try (Session session = ProfileMicroserviceApplication.driver.session()) {
+    try (Session session = this.driver.session()) {
       try (Transaction trans = session.beginTransaction()) {
         queryStr = "CREATE CONSTRAINT ON (nProfile:profile) ASSERT exists(nProfile.userName)";
         trans.run(queryStr);
@@ -39,6 +57,7 @@ public class ProfileDriverImpl implements ProfileDriver {
   }
 
   @Override
+  @Timed("profile.neo4j")
   public DbQueryStatus createUserProfile(String userName, String fullName, String password) {
     DbQueryStatus queryStatus;
     // check params
@@ -77,6 +96,7 @@ public class ProfileDriverImpl implements ProfileDriver {
   }
 
   @Override
+  @Timed("profile.neo4j")
   public DbQueryStatus followFriend(String userName, String frndUserName) {
     DbQueryStatus queryStatus;
     // check params
@@ -85,38 +105,33 @@ public class ProfileDriverImpl implements ProfileDriver {
     }
     try (Session session = this.driver.session()) {
       try (Transaction trans = session.beginTransaction()) {
-        // check users exists
-        StatementResult resultUser = trans.run(
-            "MATCH (nUser:profile {userName: $userName}) RETURN nUser",
-            parameters("userName", userName));
-        StatementResult resultFriend = trans.run(
-            "MATCH (nFriend:profile {userName: $userName}) RETURN nFriend",
-            parameters("userName", frndUserName));
-        if (resultUser.hasNext() && resultFriend.hasNext()) { // both users in db
-          StatementResult result = trans.run(
-              "MATCH (nUser:profile {userName: $userName1}) "
-                  + " MATCH (nFriend:profile {userName: $userName2}) "
-                  + "RETURN EXISTS ((nUser)-[:follows]->(nFriend)) AS rl_exists",
-              parameters("userName1", userName, "userName2", frndUserName));
-          if (result.next().get("rl_exists", false)) { // if relationship exists
+        // check both users exist and aren't following yet, then follow, in one round trip
+        StatementResult result = trans.run(
+            "OPTIONAL MATCH (nUser:profile {userName: $userName1}) "
+                + " OPTIONAL MATCH (nFriend:profile {userName: $userName2}) "
+                + " WITH nUser, nFriend, CASE "
+                + "   WHEN nUser IS NULL OR nFriend IS NULL THEN 'notFound' "
+                + "   WHEN EXISTS ((nUser)-[:follows]->(nFriend)) THEN 'exists' "
+                + "   ELSE 'ok' END AS status "
+                + " FOREACH (ignored IN CASE WHEN status = 'ok' THEN [1] ELSE [] END | "
+                + "   MERGE (nUser)-[:follows]->(nFriend)) "
+                + " RETURN status",
+            parameters("userName1", userName, "userName2", frndUserName));
+        switch (result.single().get("status").asString()) {
+          case "notFound": // users not in db
+            queryStatus = new DbQueryStatus("User not in DB",
+                DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+            break;
+          case "exists": // if relationship exists
             queryStatus = new DbQueryStatus("Relationship already exists in the DB",
                 DbQueryExecResult.QUERY_ERROR_GENERIC);
-          } else {
-            result = trans.run(
-                "MATCH (nUser:profile {userName: $userName1}) "
-                    + " MATCH (nFriend:profile {userName: $userName2}) "
-                    + " MERGE (nUser)-[:follows]->(nFriend)",
-                parameters("userName1", userName, "userName2", frndUserName));
+            break;
+          default:
+            friendFeedDriver.follow(trans, userName, frndUserName);
             queryStatus = new DbQueryStatus(userName + " is now following " + frndUserName,
                 DbQueryExecResult.QUERY_OK);
-          }
-        } else {
-          // users not in db
-          queryStatus = new DbQueryStatus("User not in DB",
-              DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
         }
         trans.success();
-        // check relationship created
       } catch (Exception e) {
         e.printStackTrace();
         queryStatus = new DbQueryStatus("Relationship not added to DB",
@@ -128,6 +143,7 @@ public class ProfileDriverImpl implements ProfileDriver {
   }
 
   @Override
+  @Timed("profile.neo4j")
   public DbQueryStatus unfollowFriend(String userName, String frndUserName) {
     DbQueryStatus queryStatus;
     // check params
@@ -139,40 +155,34 @@ public class ProfileDriverImpl implements ProfileDriver {
     }
     try (Session session = this.driver.session()) {
       try (Transaction trans = session.beginTransaction()) {
-        // check users exists
-        StatementResult resultUser = trans.run(
-            "MATCH (nUser:profile {userName: $userName}) RETURN nUser",
-            parameters("userName", userName));
-        StatementResult resultFriend = trans.run(
-            "MATCH (nFriend:profile {userName: $userName}) RETURN nFriend",
-            parameters("userName", frndUserName));
-        if (resultUser.hasNext() && resultFriend.hasNext()) { // both users in db
-          // check relationship exists
-          StatementResult result = trans.run(
-              "MATCH (nUser:profile {userName: $userName1}) "
-                  + " MATCH (nFriend:profile {userName: $userName2}) "
-                  + "RETURN EXISTS ((nUser)-[:follows]->(nFriend)) AS rl_exists",
-              parameters("userName1", userName, "userName2", frndUserName));
-          if (!result.next().get("rl_exists", false)) { // if relationship doesnt exist
+        // check both users exist and the relationship exists, then remove it, in one round trip
+        StatementResult result = trans.run(
+            "OPTIONAL MATCH (nUser:profile {userName: $userName1}) "
+                + " OPTIONAL MATCH (nFriend:profile {userName: $userName2}) "
+                + " OPTIONAL MATCH (nUser)-[r:follows]->(nFriend) "
+                + " WITH nUser, nFriend, collect(r) AS rels "
+                + " WITH rels, CASE "
+                + "   WHEN nUser IS NULL OR nFriend IS NULL THEN 'notFound' "
+                + "   WHEN size(rels) = 0 THEN 'missing' "
+                + "   ELSE 'ok' END AS status "
+                + " FOREACH (r IN rels | DELETE r) "
+                + " RETURN status",
+            parameters("userName1", userName, "userName2", frndUserName));
+        switch (result.single().get("status").asString()) {
+          case "notFound": // users not in db
+            queryStatus = new DbQueryStatus("User not in DB",
+                DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+            break;
+          case "missing": // if relationship doesnt exist
             queryStatus = new DbQueryStatus("Relationship doesn't exist in the DB",
                 DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
-          } else { // relationship does exist, remove it
-            result = trans.run(
-                "MATCH (nUser:profile {userName: $userName1}) "
-                    + " MATCH (nFriend:profile {userName: $userName2}) "
-                    + " MATCH (nUser)-[r:follows]->(nFriend) "
-                    + " DELETE r",
-                parameters("userName1", userName, "userName2", frndUserName));
+            break;
+          default:
+            friendFeedDriver.unfollow(trans, userName, frndUserName);
             queryStatus = new DbQueryStatus(userName + " has now unfollowed " + frndUserName,
                 DbQueryExecResult.QUERY_OK);
-          }
-        } else {
-          // users not in db
-          queryStatus = new DbQueryStatus("User not in DB",
-              DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
         }
         trans.success();
-        // check relationship created
       } catch (Exception e) {
         e.printStackTrace();
         queryStatus = new DbQueryStatus("Relationship not removed from DB",
@@ -184,73 +194,110 @@ public class ProfileDriverImpl implements ProfileDriver {
   }
 
   @Override
+  @Timed("profile.neo4j")
   public DbQueryStatus getAllSongFriendsLike(String userName) {
     Map<String, List<String>> idListsMap = new HashMap<>();
-    List<String> songIds = new ArrayList<>();
     DbQueryStatus queryStatus;
     // check params
     if (userName == null || userName.isEmpty()) {
       return new DbQueryStatus("Missing Parameters", DbQueryExecResult.QUERY_ERROR_GENERIC);
     }
 
-    // check user exists
     try (Session session = this.driver.session()) {
       try (Transaction trans = session.beginTransaction()) {
-        // check user in db
+        // one row per friend with the songIds in their playlist, a single row with a null name if
+        // the user follows nobody, and no rows if the user doesn't exist
         StatementResult result = trans.run(
-            "MATCH (nProfile:profile {userName: $userName}) RETURN nProfile",
+            "MATCH (nUser:profile {userName: $userName}) "
+                + " OPTIONAL MATCH (nUser)-[:follows]->(nFriend:profile) "
+                + " OPTIONAL MATCH (nFriend)-[:created]->(:playlist)-[:includes]->(nSong:song) "
+                + "   WHERE nSong.deleted IS NULL "
+                + " RETURN nFriend.userName AS name, collect(nSong.songId) AS songIds",
             parameters("userName", userName));
         if (!result.hasNext()) {
           return new DbQueryStatus("User doesn't exist in the DB",
               DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
         }
+        while (result.hasNext()) {
+          Record record = result.next();
+          if (!record.get("name").isNull()) {
+            idListsMap.put(record.get("name").asString(),
+                record.get("songIds").asList(Values.ofString()));
+          }
+        }
+        trans.success();
+      } catch (Exception e) {
+        return new DbQueryStatus("Something went wrong", DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      session.close();
+    }
+    if (idListsMap.isEmpty()) {
+      queryStatus = new DbQueryStatus("User doesn't follow anyone", DbQueryExecResult.QUERY_OK);
+    } else {
+      queryStatus = new DbQueryStatus("All songs in friends' playlists returned",
+          DbQueryExecResult.QUERY_OK);
+    }
+    queryStatus.setData(idListsMap);
+    return queryStatus;
+  }
 
-        // get all users followed by user
-        result = trans
-            .run("MATCH (nUser:profile {userName: $userName})-[r:follows]->(nFriend:profile) "
-                    + " RETURN nFriend.userName AS name",
-                parameters("userName", userName));
+  /**
+   * Ranks the songs in the playlists of the profiles the user follows by how many of them have
+   * each song, leaving out the songs the user already has in their favourites playlist
+   *
+   * @param userName the user to recommend songs to
+   * @param limit    the most songs to return
+   * @return a list of "songId" and the number of "friends" who have it, most friends first, as
+   *         data
+   */
+  @Override
+  @Timed("profile.neo4j")
+  public DbQueryStatus getSongRecommendations(String userName, int limit) {
+    // check params
+    if (userName == null || userName.isEmpty()) {
+      return new DbQueryStatus("Missing Parameters", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    } else if (limit < 1 || limit > MAX_RECOMMENDATIONS) {
+      return new DbQueryStatus("Invalid limit is passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    List<Map<String, Object>> recommendations = new ArrayList<>();
+    try (Session session = this.driver.session()) {
+      try (Transaction trans = session.beginTransaction()) {
+        // counted and ranked in the DB, so only the top songs come back. A single row with a null
+        // songId if no friend has a song the user doesn't, and no rows if the user doesn't exist
+        StatementResult result = trans.run(
+            "MATCH (nUser:profile {userName: $userName}) "
+                + " OPTIONAL MATCH (nUser)-[:created]->(nFavourites:playlist {plName: $plName}) "
+                + " OPTIONAL MATCH (nUser)-[:follows]->(nFriend:profile)-[:created]->(:playlist)"
+                + "   -[:includes]->(nSong:song) "
+                + "   WHERE nSong.deleted IS NULL "
+                + "   AND (nFavourites IS NULL OR NOT (nFavourites)-[:includes]->(nSong)) "
+                + " WITH nSong, count(DISTINCT nFriend) AS friends "
+                + " RETURN nSong.songId AS songId, friends "
+                + " ORDER BY friends DESC, songId LIMIT $limit",
+            parameters("userName", userName, "plName", userName + "-favorites", "limit", limit));
         if (!result.hasNext()) {
-          queryStatus = new DbQueryStatus("User doesn't follow anyone",
-              DbQueryExecResult.QUERY_OK);
-          queryStatus.setData(idListsMap);
-          return queryStatus;
+          return new DbQueryStatus("User doesn't exist in the DB",
+              DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
         }
-        // get friend names
-//        friendNames.clear();
         while (result.hasNext()) {
           Record record = result.next();
-          idListsMap.put(record.get("name").asString(), new ArrayList<>());
-        }
-
-        // get all songIds for all users followed by user
-        for (String name : idListsMap.keySet()) {
-          result = trans.run(
-              "MATCH (nFriend:profile {userName: $userName})-[r:created]->(nPlaylist:playlist) "
-                  + " MATCH (nPlaylist)-[s:includes]->(nSong:song) "
-                  + " RETURN nSong.songId AS songId",
-              parameters("userName", name));
-          if (result.hasNext()) {
-            // get songs
-            songIds.clear();
-            while (result.hasNext()) {
-              Record record = result.next();
-              songIds.add(record.get("songId").asString());
-            }
-            idListsMap.put(name, new ArrayList<>(songIds));
+          if (!record.get("songId").isNull()) {
+            Map<String, Object> recommendation = new LinkedHashMap<>();
+            recommendation.put("songId", record.get("songId").asString());
+            recommendation.put("friends", record.get("friends").asLong());
+            recommendations.add(recommendation);
           }
         }
         trans.success();
       } catch (Exception e) {
-        queryStatus = new DbQueryStatus("Something went wrong",
-            DbQueryExecResult.QUERY_ERROR_GENERIC);
+        e.printStackTrace();
+        return new DbQueryStatus("Something went wrong", DbQueryExecResult.QUERY_ERROR_GENERIC);
       }
       session.close();
     }
-    queryStatus = new DbQueryStatus("All songs in friends' playlists returned",
+    DbQueryStatus queryStatus = new DbQueryStatus("Song recommendations returned",
         DbQueryExecResult.QUERY_OK);
-    queryStatus.setData(idListsMap);
+    queryStatus.setData(recommendations);
     return queryStatus;
   }
-
 }
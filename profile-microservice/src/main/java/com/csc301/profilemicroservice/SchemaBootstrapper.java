@@ -0,0 +1,162 @@
+package com.csc301.profilemicroservice;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+import java.util.Arrays;
+import java.util.List;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.summary.Plan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+
+/**
+ * Brings the Neo4j schema up to date at startup, once every bean is created but before the web
+ * server takes requests and the background jobs start on ApplicationReadyEvent. Each step has a
+ * version, and the version of the last step applied is stored on a :schemaVersion node, so steps
+ * that were already applied are skipped on the next start. A step that fails stops the startup,
+ * and is tried again on the next start.
+ * <p>
+ * Afterwards the hot song and playlist lookups are EXPLAINed, and a warning is logged if they
+ * would scan the label instead of seeking an index.
+ */
+@Component
+public class SchemaBootstrapper implements SmartInitializingSingleton {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SchemaBootstrapper.class);
+
+  private static final String SCHEMA_NAME = "profile-microservice";
+
+  /**
+   * The schema steps in the order they are applied. Only ever add steps to the end
+   */
+  private static final List<Step> STEPS = Arrays.asList(
+      new Step(1, "profile.userName is unique",
+          "CREATE CONSTRAINT ON (nProfile:profile) ASSERT nProfile.userName IS UNIQUE"),
+      // concurrent MERGEs could create the same song twice before it was unique, move the
+      // playlists of the duplicates onto one of them so the constraint can be created
+      new Step(2, "merge duplicate songs",
+          "MATCH (nSong:song) WITH nSong.songId AS songId, collect(nSong) AS nSongs "
+              + " WHERE size(nSongs) > 1 "
+              + " WITH head(nSongs) AS nKeep, tail(nSongs) AS nDuplicates "
+              + " UNWIND nDuplicates AS nDuplicate "
+              + " OPTIONAL MATCH (nPlaylist:playlist)-[:includes]->(nDuplicate) "
+              + " FOREACH (p IN CASE WHEN nPlaylist IS NULL THEN [] ELSE [nPlaylist] END | "
+              + "   MERGE (p)-[:includes]->(nKeep)) "
+              + " WITH DISTINCT nDuplicate "
+              + " DETACH DELETE nDuplicate"),
+      new Step(3, "song.songId is unique",
+          "CREATE CONSTRAINT ON (nSong:song) ASSERT nSong.songId IS UNIQUE"),
+      new Step(4, "playlist.plName is unique",
+          "CREATE CONSTRAINT ON (nPlaylist:playlist) ASSERT nPlaylist.plName IS UNIQUE"),
+      new Step(5, "favouritesOutbox.key is unique",
+          "CREATE CONSTRAINT ON (nUpdate:favouritesOutbox) ASSERT nUpdate.key IS UNIQUE"),
+      new Step(6, "favouritesOutbox is read oldest first",
+          "CREATE INDEX ON :favouritesOutbox(createdAt)"),
+      new Step(7, "deleted songs are found without a label scan",
+          "CREATE INDEX ON :song(deleted)"),
+      new Step(8, "friendFeed.userName is unique",
+          "CREATE CONSTRAINT ON (nFeed:friendFeed) ASSERT nFeed.userName IS UNIQUE"));
+
+  /**
+   * The lookups every like, unlike and delete starts with
+   */
+  private static final List<String> HOT_QUERIES = Arrays.asList(
+      "EXPLAIN MATCH (nSong:song {songId: $songId}) RETURN nSong",
+      "EXPLAIN MATCH (nPlaylist:playlist {plName: $plName}) RETURN nPlaylist",
+      "EXPLAIN MATCH (nProfile:profile {userName: $userName}) RETURN nProfile");
+
+  private final Driver driver;
+
+  public SchemaBootstrapper(Driver driver) {
+    this.driver = driver;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    bootstrap();
+  }
+
+  /**
+   * Applies the schema steps that haven't been applied yet, then checks the hot queries use an
+   * index
+   *
+   * @throws IllegalStateException if a step couldn't be applied
+   */
+  public void bootstrap() {
+    try (Session session = driver.session()) {
+      long version = getVersion(session);
+      for (Step step : STEPS) {
+        if (step.version <= version) {
+          continue;
+        }
+        try {
+          // schema changes can't share a transaction with writes, so each step commits on its own
+          session.run(step.query).consume();
+          session.run("MERGE (nSchema:schemaVersion {name: $name}) SET nSchema.version = $version",
+              parameters("name", SCHEMA_NAME, "version", step.version)).consume();
+          LOG.info("applied schema step {}: {}", step.version, step.description);
+        } catch (Exception e) {
+          throw new IllegalStateException("could not apply schema step " + step.version + " ("
+              + step.description + ")", e);
+        }
+      }
+      checkIndexSeeks(session);
+      session.close();
+    }
+  }
+
+  private static long getVersion(Session session) {
+    StatementResult result = session.run(
+        "MATCH (nSchema:schemaVersion {name: $name}) RETURN nSchema.version AS version",
+        parameters("name", SCHEMA_NAME));
+    if (!result.hasNext()) {
+      return 0;
+    }
+    Record record = result.next();
+    return record.get("version").isNull() ? 0 : record.get("version").asLong();
+  }
+
+  private static void checkIndexSeeks(Session session) {
+    for (String query : HOT_QUERIES) {
+      try {
+        Plan plan = session.run(query,
+            parameters("songId", "", "plName", "", "userName", "")).consume().plan();
+        if (!usesIndexSeek(plan)) {
+          LOG.warn("no index seek in the plan of: {}", query);
+        }
+      } catch (Exception e) {
+        LOG.warn("could not check the plan of: {}: {}", query, e.getMessage());
+      }
+    }
+  }
+
+  private static boolean usesIndexSeek(Plan plan) {
+    if (plan.operatorType().contains("IndexSeek")) {
+      return true;
+    }
+    for (Plan child : plan.children()) {
+      if (usesIndexSeek(child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Step {
+
+    private final long version;
+    private final String description;
+    private final String query;
+
+    private Step(long version, String description, String query) {
+      this.version = version;
+      this.description = description;
+      this.query = query;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.csc301.profilemicroservice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Removes the songs deleteAllSongsFromDb marked as deleted, together with their playlist
+ * relationships, batchSize relationships per transaction so a song in millions of playlists
+ * doesn't need one huge transaction. Batches run back to back on a single background thread while
+ * there is work, and every sweepIntervalMs otherwise. The progress is kept on the song, so the
+ * sweep carries on after a restart.
+ */
+@Component
+public class SongDeletionSweeper {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SongDeletionSweeper.class);
+
+  private final PlaylistDriverImpl playlistDriver;
+  private final int batchSize;
+  private final long sweepIntervalMs;
+
+  private final Counter removedRelationships;
+  private final Counter removedSongs;
+
+  private ScheduledExecutorService sweeper;
+
+  public SongDeletionSweeper(PlaylistDriverImpl playlistDriver, MeterRegistry registry,
+      @Value("${songs.deletion.batchSize:1000}") int batchSize,
+      @Value("${songs.deletion.sweepIntervalMs:1000}") long sweepIntervalMs) {
+    this.playlistDriver = playlistDriver;
+    this.batchSize = Math.max(1, batchSize);
+    this.sweepIntervalMs = sweepIntervalMs;
+
+    this.removedRelationships = Counter.builder("songs.deletion.relationships")
+        .description("Playlist relationships of deleted songs removed by the sweeper")
+        .register(registry);
+    this.removedSongs = Counter.builder("songs.deletion.songs")
+        .description("Deleted songs removed by the sweeper once they had no relationships left")
+        .register(registry);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "song-deletion-sweeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sweeper.schedule(this::sweep, 0, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs one batch and schedules the next: right away if a deleted song was found, after the sweep
+   * interval if there was none or the batch failed
+   */
+  private void sweep() {
+    long delayMs = sweepIntervalMs;
+    try {
+      DbQueryStatus dbQueryStatus = playlistDriver.sweepDeletedSong(batchSize);
+      if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
+        throw new IllegalStateException(dbQueryStatus.getMessage());
+      }
+      Map<String, Object> progress = (Map<String, Object>) dbQueryStatus.getData();
+      if (progress != null) {
+        long removed = (Long) progress.get("removed");
+        removedRelationships.increment(removed);
+        if (removed < batchSize) {
+          removedSongs.increment();
+          LOG.info("removed deleted song {} and its {} relationships", progress.get("songId"),
+              progress.get("removedTotal"));
+        }
+        delayMs = 0;
+      }
+    } catch (RuntimeException e) {
+      LOG.warn("could not sweep deleted songs, retrying in {}ms: {}", delayMs, e.getMessage());
+    }
+    if (!sweeper.isShutdown()) {
+      sweeper.schedule(this::sweep, delayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+}
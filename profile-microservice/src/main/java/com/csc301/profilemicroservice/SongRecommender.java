@@ -0,0 +1,107 @@
+package com.csc301.profilemicroservice;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Recommends songs to a user from the playlists of the profiles they follow, see
+ * ProfileDriverImpl.getSongRecommendations.
+ * <p>
+ * The top MAX_RECOMMENDATIONS songs of each user are cached, and smaller limits are served from
+ * them. A user's entry is dropped when they follow or unfollow someone, and the entries of the
+ * user and their followers are dropped when the user changes their favourites. The followers are
+ * read in the like's own transaction. The time to live covers anything else, e.g. a song being
+ * deleted.
+ */
+@Component
+public class SongRecommender {
+
+  private final ProfileDriverImpl profileDriver;
+  private final Cache<String, List<Map<String, Object>>> recommendationCache;
+
+  public SongRecommender(ProfileDriverImpl profileDriver, MeterRegistry registry,
+      @Value("${recommendations.cache.maxSize:10000}") long cacheMaxSize,
+      @Value("${recommendations.cache.ttlSeconds:300}") long cacheTtlSeconds) {
+    this.profileDriver = profileDriver;
+    this.recommendationCache = Caffeine.newBuilder()
+        .maximumSize(cacheMaxSize)
+        .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(registry, recommendationCache, "songRecommendations");
+  }
+
+  /**
+   * Returns the songs to recommend to the user, most friends first
+   *
+   * @param userName the user to recommend songs to
+   * @param limit    the most songs to return
+   * @return a list of "songId" and the number of "friends" who have it as data
+   */
+  public DbQueryStatus getRecommendations(String userName, int limit) {
+    if (limit < 1 || limit > ProfileDriverImpl.MAX_RECOMMENDATIONS) {
+      return new DbQueryStatus("Invalid limit is passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    List<Map<String, Object>> recommendations;
+    try {
+      // an invalidate for the user waits for a load that is running, so a load that started before
+      // a change is never kept after it
+      recommendations = recommendationCache.get(userName, user -> {
+        DbQueryStatus dbQueryStatus = profileDriver
+            .getSongRecommendations(user, ProfileDriverImpl.MAX_RECOMMENDATIONS);
+        if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
+          // nothing is cached, and only the caller whose load failed gets the failure
+          throw new LoadFailedException(dbQueryStatus);
+        }
+        return (List<Map<String, Object>>) dbQueryStatus.getData();
+      });
+    } catch (LoadFailedException e) {
+      return e.dbQueryStatus;
+    }
+    DbQueryStatus dbQueryStatus = new DbQueryStatus("Song recommendations returned",
+        DbQueryExecResult.QUERY_OK);
+    dbQueryStatus.setData(recommendations.subList(0, Math.min(limit, recommendations.size())));
+    return dbQueryStatus;
+  }
+
+  /**
+   * Drops the user's recommendations, after they followed or unfollowed someone
+   *
+   * @param userName the user whose friends changed
+   */
+  public void invalidate(String userName) {
+    recommendationCache.invalidate(userName);
+  }
+
+  /**
+   * Drops the recommendations of the user and of everyone who follows them, after the user's
+   * favourites changed
+   *
+   * @param userName  the user whose favourites changed
+   * @param followers who follows the user
+   */
+  public void invalidateWithFollowers(String userName, List<String> followers) {
+    recommendationCache.invalidate(userName);
+    recommendationCache.invalidateAll(followers);
+  }
+
+  /**
+   * Carries a failed load out of the cache, which keeps nothing for the user
+   */
+  private static final class LoadFailedException extends RuntimeException {
+
+    private final DbQueryStatus dbQueryStatus;
+
+    private LoadFailedException(DbQueryStatus dbQueryStatus) {
+      super(dbQueryStatus.getMessage(), null, false, false);
+      this.dbQueryStatus = dbQueryStatus;
+    }
+  }
+}
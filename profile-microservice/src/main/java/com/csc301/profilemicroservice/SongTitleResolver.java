@@ -0,0 +1,318 @@
+package com.csc301.profilemicroservice;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Turns song ids into song titles by calling the Songs Microservice getSongTitlesByIds API, a
+ * chunk of ids per call.
+ * <p>
+ * Titles are kept in a size-bounded cache with a time to live, so songs that show up in many
+ * friends' playlists aren't looked up again on every request. The cache can be filled with the
+ * songs in the DB at startup, and a song is evicted when it is deleted. A lookup that was running
+ * when a song was evicted doesn't put the song back.
+ * <p>
+ * In parallel mode the chunks of one request are looked up at the same time on a dedicated,
+ * bounded pool, at most maxConcurrencyPerRequest at once, and the whole lookup gives up after
+ * deadlineMs. Each call is also cut off by OkHttp after deadlineMs, so a chunk that missed the
+ * deadline doesn't keep a pool thread waiting on the read timeout. Chunks that fail or don't finish
+ * in time are left out instead of failing the request.
+ */
+@Component
+public class SongTitleResolver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SongTitleResolver.class);
+
+  // read straight into the titles by song id
+  private static final ParameterizedTypeReference<ApiResponse<Map<String, String>>>
+      TITLES_RESPONSE = new ParameterizedTypeReference<ApiResponse<Map<String, String>>>() {
+      };
+
+  private final RestTemplate restTemplate;
+  private final String songServiceUrl;
+  private final int chunkSize;
+  private final boolean parallel;
+  private final int maxConcurrencyPerRequest;
+  private final long deadlineMs;
+  private final ThreadPoolExecutor executor;
+  private final Cache<String, String> titleCache;
+  private final PlaylistDriverImpl playlistDriver;
+  private final boolean preload;
+  private final long cacheMaxSize;
+  private final Counter failedLookups;
+  /**
+   * The songs evicted while each lookup that is running was under way
+   */
+  private final Set<Set<String>> evictedDuringLookups = ConcurrentHashMap.newKeySet();
+
+  public SongTitleResolver(RestTemplate restTemplate, RestTemplateBuilder restTemplateBuilder,
+      OkHttpClient okHttpClient, PlaylistDriverImpl playlistDriver, MeterRegistry registry,
+      @Value("${interservice.songService.url}") String songServiceUrl,
+      @Value("${interservice.titles.chunkSize:300}") int chunkSize,
+      @Value("${interservice.titles.parallel.enabled:false}") boolean parallel,
+      @Value("${interservice.titles.parallel.threads:8}") int threads,
+      @Value("${interservice.titles.parallel.queueSize:256}") int queueSize,
+      @Value("${interservice.titles.parallel.maxConcurrencyPerRequest:4}") int maxConcurrencyPerRequest,
+      @Value("${interservice.titles.parallel.deadlineMs:2000}") long deadlineMs,
+      @Value("${interservice.titles.cache.maxSize:50000}") long cacheMaxSize,
+      @Value("${interservice.titles.cache.ttlSeconds:3600}") long cacheTtlSeconds,
+      @Value("${interservice.titles.cache.preload:false}") boolean preload) {
+    // the client built from the shared one keeps using its connection pool
+    this.restTemplate = !parallel ? restTemplate : restTemplateBuilder
+        .requestFactory(() -> new OkHttp3ClientHttpRequestFactory(okHttpClient.newBuilder()
+            .callTimeout(deadlineMs, TimeUnit.MILLISECONDS)
+            .build()))
+        .build();
+    this.playlistDriver = playlistDriver;
+    this.preload = preload;
+    this.cacheMaxSize = cacheMaxSize;
+    // Caffeine evicts by a mix of recency and frequency once maxSize is reached
+    this.titleCache = Caffeine.newBuilder()
+        .maximumSize(cacheMaxSize)
+        .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(registry, titleCache, "songTitles");
+    this.failedLookups = Counter.builder("songTitles.lookups.failed")
+        .description("Chunks of song titles that failed or didn't finish before the deadline")
+        .register(registry);
+    this.songServiceUrl = songServiceUrl;
+    this.chunkSize = chunkSize;
+    this.parallel = parallel;
+    this.maxConcurrencyPerRequest = maxConcurrencyPerRequest;
+    this.deadlineMs = deadlineMs;
+    if (parallel) {
+      AtomicInteger threadCount = new AtomicInteger();
+      this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(queueSize), runnable -> {
+        Thread thread = new Thread(runnable, "song-titles-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    } else {
+      this.executor = null;
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Fills the title cache with the songs in the DB, if preloading is turned on
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void preloadTitles() {
+    if (!preload) {
+      return;
+    }
+    DbQueryStatus dbQueryStatus = playlistDriver.getAllSongIds((int) cacheMaxSize);
+    if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
+      return;
+    }
+    try {
+      lookUpTitles(toChunks((List<String>) dbQueryStatus.getData()), false);
+    } catch (RestClientException connectionUnavailable) {
+      LOG.warn("could not preload song titles: {}", connectionUnavailable.getMessage());
+    }
+  }
+
+  /**
+   * Removes a song from the title cache, so a deleted song's title isn't returned anymore
+   *
+   * @param songId the song to remove
+   */
+  public void evictTitle(String songId) {
+    for (Set<String> evicted : evictedDuringLookups) {
+      evicted.add(songId);
+    }
+    titleCache.invalidate(songId);
+  }
+
+  /**
+   * Replaces each list of song ids with the titles of those songs, in the same order. Songs whose
+   * title can't be found are left out.
+   *
+   * @param idLists song ids for each user
+   * @return song titles for each user
+   * @throws RestClientException if none of the titles could be looked up
+   */
+  public Map<String, List<String>> getAllSongTitles(Map<String, List<String>> idLists)
+      throws RestClientException {
+    // look every distinct song up once
+    Set<String> distinctIds = new LinkedHashSet<>();
+    idLists.values().forEach(distinctIds::addAll);
+    Map<String, String> titles = getSongTitles(distinctIds);
+
+    Map<String, List<String>> titleLists = new HashMap<>();
+    // loop through users and add to map
+    for (String user : idLists.keySet()) {
+      List<String> songTitles = new ArrayList<>();
+      // loop through songIds and add title to list
+      for (String songId : idLists.get(user)) {
+        String title = titles.get(songId);
+        if (title != null) {
+          songTitles.add(title);
+        }
+      }
+      titleLists.put(user, songTitles);
+    }
+    return titleLists;
+  }
+
+  /**
+   * Returns the titles of the songs, from the cache or else from the Songs Microservice. Songs
+   * whose title can't be found are left out.
+   *
+   * @param songIds the distinct song ids
+   * @return the title of each song, by song id
+   * @throws RestClientException if none of the titles that weren't cached could be looked up
+   */
+  public Map<String, String> getSongTitles(Set<String> songIds) throws RestClientException {
+    Map<String, String> titles = new HashMap<>(titleCache.getAllPresent(songIds));
+    List<String> missingIds = songIds.stream().filter(songId -> !titles.containsKey(songId))
+        .collect(Collectors.toList());
+    if (!missingIds.isEmpty()) {
+      titles.putAll(lookUpTitles(toChunks(missingIds), parallel));
+    }
+    return titles;
+  }
+
+  /**
+   * Looks the titles up and caches them. A song evicted while the lookup ran may have been looked
+   * up before it was deleted, so it is evicted again once the titles are cached
+   */
+  private Map<String, String> lookUpTitles(List<List<String>> chunks, boolean inParallel)
+      throws RestClientException {
+    Set<String> evicted = ConcurrentHashMap.newKeySet();
+    evictedDuringLookups.add(evicted);
+    try {
+      Map<String, String> found = inParallel ? getTitlesInParallel(chunks) : getTitles(chunks);
+      titleCache.putAll(found);
+      return found;
+    } finally {
+      evictedDuringLookups.remove(evicted);
+      titleCache.invalidateAll(evicted);
+    }
+  }
+
+  private List<List<String>> toChunks(List<String> songIds) {
+    List<List<String>> chunks = new ArrayList<>();
+    for (int i = 0; i < songIds.size(); i += chunkSize) {
+      chunks.add(songIds.subList(i, Math.min(i + chunkSize, songIds.size())));
+    }
+    return chunks;
+  }
+
+  private Map<String, String> getTitles(List<List<String>> chunks) throws RestClientException {
+    Map<String, String> titles = new HashMap<>();
+    for (List<String> chunk : chunks) {
+      titles.putAll(getSongTitlesAPI(chunk));
+    }
+    return titles;
+  }
+
+  private Map<String, String> getTitlesInParallel(List<List<String>> chunks)
+      throws RestClientException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+    Semaphore permits = new Semaphore(maxConcurrencyPerRequest);
+    List<Future<Map<String, String>>> lookups = new ArrayList<>();
+    for (List<String> chunk : chunks) {
+      try {
+        // don't start more than maxConcurrencyPerRequest lookups for this request at once
+        if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+          break;
+        }
+        // submitted as a FutureTask, so cancelling a lookup that is running interrupts its thread
+        lookups.add(executor.submit(() -> {
+          try {
+            return getSongTitlesAPI(chunk);
+          } finally {
+            permits.release();
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        // the shared pool is full, so this chunk is skipped
+        permits.release();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    // whatever was rejected or didn't get started before the deadline counts as failed
+    int failed = chunks.size() - lookups.size();
+
+    Map<String, String> titles = new HashMap<>();
+    for (Future<Map<String, String>> lookup : lookups) {
+      try {
+        titles.putAll(lookup.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+      } catch (TimeoutException | ExecutionException e) {
+        lookup.cancel(true);
+        failed++;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        lookup.cancel(true);
+        failed++;
+      }
+    }
+    if (failed > 0) {
+      failedLookups.increment(failed);
+      if (failed == chunks.size()) {
+        throw new RestClientException("Songs getSongTitlesByIds API unavailable");
+      }
+    }
+    return titles;
+  }
+
+  private Map<String, String> getSongTitlesAPI(List<String> songIds) throws RestClientException {
+    final String uri = songServiceUrl + "/getSongTitlesByIds";
+
+    ResponseEntity<ApiResponse<Map<String, String>>> result = restTemplate
+        .exchange(uri, HttpMethod.POST, new HttpEntity<>(songIds), TITLES_RESPONSE);
+    // { "status" : "OK", "data" : { "5d61728193528481fe5a3124" : "Never going to give you up" } }
+    if (!result.getBody().isOk()) {
+      throw new RestClientException("Songs getSongTitlesByIds API returned "
+          + result.getBody().getStatus());
+    }
+    return result.getBody().getData();
+  }
+}
@@ -1,6 +1,5 @@
 package com.csc301.profilemicroservice;
 
-import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import okhttp3.RequestBody;
 import org.springframework.http.HttpStatus;
@@ -21,20 +20,20 @@ public class Utils {
 	}
 
 	// Sets the response status and data for a response from the server. You will not always be able to use this function
-	public static Map<String, Object> setResponseStatus(Map<String, Object> response,
-			DbQueryExecResult dbQueryExecResult, Object data) {
+	public static <T> ApiResponse<T> setResponseStatus(ApiResponse<T> response,
+			DbQueryExecResult dbQueryExecResult, T data) {
 		switch (dbQueryExecResult) {
 			case QUERY_OK:
-				response.put("status", HttpStatus.OK);
+				response.setStatus(HttpStatus.OK);
 				if (data != null) {
-					response.put("data", data);
+					response.setData(data);
 				}
 				break;
 			case QUERY_ERROR_NOT_FOUND:
-				response.put("status", HttpStatus.NOT_FOUND);
+				response.setStatus(HttpStatus.NOT_FOUND);
 				break;
 			case QUERY_ERROR_GENERIC:
-				response.put("status", HttpStatus.INTERNAL_SERVER_ERROR);
+				response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR);
 				break;
 		}
 
@@ -0,0 +1,58 @@
+package com.csc301.profilemicroservice;
+
+import org.junit.rules.ExternalResource;
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.harness.ServerControls;
+import org.neo4j.harness.TestServerBuilders;
+
+/**
+ * An embedded Neo4j 3.5 (neo4j-harness) with the service's schema, for the tests of the drivers.
+ * Starting it takes seconds, so it is meant as a ClassRule with clear called before each test
+ */
+public class EmbeddedNeo4j extends ExternalResource {
+
+  private ServerControls server;
+  private Driver driver;
+
+  @Override
+  protected void before() {
+    server = TestServerBuilders.newInProcessBuilder()
+        .withConfig("dbms.connector.bolt.enabled", "true")
+        .withConfig("dbms.connector.http.enabled", "false")
+        .withConfig("dbms.security.auth_enabled", "false")
+        .newServer();
+    driver = GraphDatabase.driver(server.boltURI(), AuthTokens.none());
+    new SchemaBootstrapper(driver).bootstrap();
+  }
+
+  @Override
+  protected void after() {
+    driver.close();
+    server.close();
+  }
+
+  public Driver getDriver() {
+    return driver;
+  }
+
+  /**
+   * Removes everything but the schema
+   */
+  public void clear() {
+    try (Session session = driver.session()) {
+      session.run("MATCH (n) WHERE NOT n:schemaVersion DETACH DELETE n").consume();
+    }
+  }
+
+  /**
+   * Runs a query that returns a single number, e.g. a count
+   */
+  public long count(String query) {
+    try (Session session = driver.session()) {
+      return session.run(query).single().get(0).asLong();
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.csc301.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.neo4j.driver.v1.Session;
+
+/**
+ * With the feed mode on, every like, unlike, follow, unfollow and swept deletion is written to the
+ * feeds of the followers, and a feed that went missing or stale is built again from the graph
+ */
+public class FriendFeedDriverImplTest {
+
+  @ClassRule
+  public static final EmbeddedNeo4j neo4j = new EmbeddedNeo4j();
+
+  private FriendFeedDriverImpl friendFeedDriver;
+  private ProfileDriverImpl profileDriver;
+  private PlaylistDriverImpl playlistDriver;
+
+  @Before
+  public void setUp() {
+    neo4j.clear();
+    friendFeedDriver = new FriendFeedDriverImpl(neo4j.getDriver(), true);
+    friendFeedDriver.initFriendFeedDb();
+    profileDriver = new ProfileDriverImpl(neo4j.getDriver(), friendFeedDriver);
+    SongRecommender songRecommender =
+        new SongRecommender(profileDriver, new SimpleMeterRegistry(), 100, 300);
+    playlistDriver =
+        new PlaylistDriverImpl(neo4j.getDriver(), false, friendFeedDriver, songRecommender);
+    for (String userName : new String[] {"reader", "friend", "other"}) {
+      profileDriver.createUserProfile(userName, "User " + userName, "password");
+    }
+    profileDriver.followFriend("reader", "friend");
+  }
+
+  @Test
+  public void likesAndUnlikesAreFannedOut() {
+    assertEquals(feed("friend", Collections.emptyList()), feedOf("reader"));
+
+    playlistDriver.likeSong("friend", "s1");
+    playlistDriver.likeSongs("friend", Arrays.asList("s2", "s3"));
+    assertEquals(feed("friend", Arrays.asList("s1", "s2", "s3")), feedOf("reader"));
+
+    playlistDriver.unlikeSong("friend", "s1");
+    playlistDriver.unlikeSongs("friend", Collections.singletonList("s3"));
+    assertEquals(feed("friend", Collections.singletonList("s2")), feedOf("reader"));
+  }
+
+  @Test
+  public void followAndUnfollowChangeTheFriendsInTheFeed() {
+    playlistDriver.likeSong("friend", "s1");
+    playlistDriver.likeSong("other", "s2");
+    feedOf("reader");
+
+    profileDriver.followFriend("reader", "other");
+    Map<String, List<String>> expected = feed("friend", Collections.singletonList("s1"));
+    expected.put("other", Collections.singletonList("s2"));
+    assertEquals(expected, feedOf("reader"));
+
+    profileDriver.unfollowFriend("reader", "friend");
+    assertEquals(feed("other", Collections.singletonList("s2")), feedOf("reader"));
+  }
+
+  @Test
+  public void sweptSongIsTakenOutOfTheFeeds() {
+    playlistDriver.likeSongs("friend", Arrays.asList("s1", "s2"));
+    feedOf("reader");
+
+    playlistDriver.deleteSongFromDb("s1");
+    playlistDriver.sweepDeletedSong(100);
+
+    assertEquals(feed("friend", Collections.singletonList("s2")), feedOf("reader"));
+  }
+
+  @Test
+  public void brokenFeedIsFoundAndRebuilt() {
+    playlistDriver.likeSong("friend", "s1");
+    for (String userName : new String[] {"reader", "friend", "other"}) {
+      feedOf(userName);
+    }
+    try (Session session = neo4j.getDriver().session()) {
+      session.run("MATCH (:friendFeed {userName: 'reader'})-[:entry]->(nEntry) "
+          + " DETACH DELETE nEntry").consume();
+    }
+
+    assertEquals(Collections.singletonList("reader"), feedsToRebuild());
+    assertEquals(DbQueryExecResult.QUERY_OK,
+        friendFeedDriver.rebuildFriendFeed("reader").getdbQueryExecResult());
+    assertEquals(Collections.emptyList(), feedsToRebuild());
+    assertEquals(feed("friend", Collections.singletonList("s1")), feedOf("reader"));
+  }
+
+  @Test
+  public void feedFromAnEarlierEpochIsRebuilt() {
+    feedOf("reader");
+    // the feed mode was off for a while, so the likes meanwhile weren't written to the feed
+    new FriendFeedDriverImpl(neo4j.getDriver(), false).initFriendFeedDb();
+    new PlaylistDriverImpl(neo4j.getDriver(), false,
+        new FriendFeedDriverImpl(neo4j.getDriver(), false),
+        new SongRecommender(profileDriver, new SimpleMeterRegistry(), 100, 300))
+        .likeSong("friend", "s1");
+    friendFeedDriver = new FriendFeedDriverImpl(neo4j.getDriver(), true);
+    friendFeedDriver.initFriendFeedDb();
+
+    assertEquals(feed("friend", Collections.singletonList("s1")), feedOf("reader"));
+  }
+
+  @Test
+  public void rebuildOfAMissingUserIsNotFound() {
+    assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND,
+        friendFeedDriver.rebuildFriendFeed("nobody").getdbQueryExecResult());
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, List<String>> feedOf(String userName) {
+    DbQueryStatus status = friendFeedDriver.getFriendFeed(userName);
+    assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+    return (Map<String, List<String>>) status.getData();
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<String> feedsToRebuild() {
+    DbQueryStatus status = friendFeedDriver.findFriendFeedsToRebuild("", 100);
+    assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+    return (List<String>) ((Map<String, Object>) status.getData()).get("userNames");
+  }
+
+  private static Map<String, List<String>> feed(String friend, List<String> songIds) {
+    Map<String, List<String>> feed = new HashMap<>();
+    feed.put(friend, songIds);
+    return feed;
+  }
+}
@@ -0,0 +1,97 @@
+package com.csc301.profilemicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * A deleted song is kept as a tombstone, which can't be liked, until sweepDeletedSong has removed
+ * its relationships batch by batch
+ */
+public class PlaylistDriverImplDeletionTest {
+
+  @ClassRule
+  public static final EmbeddedNeo4j neo4j = new EmbeddedNeo4j();
+
+  private PlaylistDriverImpl playlistDriver;
+
+  @Before
+  public void setUp() {
+    neo4j.clear();
+    FriendFeedDriverImpl friendFeedDriver = new FriendFeedDriverImpl(neo4j.getDriver(), false);
+    friendFeedDriver.initFriendFeedDb();
+    ProfileDriverImpl profileDriver = new ProfileDriverImpl(neo4j.getDriver(), friendFeedDriver);
+    SongRecommender songRecommender =
+        new SongRecommender(profileDriver, new SimpleMeterRegistry(), 100, 300);
+    playlistDriver =
+        new PlaylistDriverImpl(neo4j.getDriver(), false, friendFeedDriver, songRecommender);
+    for (String userName : new String[] {"a", "b", "c"}) {
+      profileDriver.createUserProfile(userName, "User " + userName, "password");
+    }
+  }
+
+  @Test
+  public void sweepRemovesTheRelationshipsInBatches() {
+    for (String userName : new String[] {"a", "b", "c"}) {
+      playlistDriver.likeSong(userName, "s1");
+    }
+    playlistDriver.deleteSongFromDb("s1");
+
+    Map<String, Object> first = sweep(2);
+    Map<String, Object> last = sweep(2);
+
+    assertEquals("s1", first.get("songId"));
+    assertEquals(2L, first.get("removed"));
+    assertEquals(2L, first.get("removedTotal"));
+    assertEquals(1L, last.get("removed"));
+    assertEquals(3L, last.get("removedTotal"));
+    assertEquals(0, neo4j.count("MATCH (nSong:song {songId: 's1'}) RETURN count(nSong)"));
+    assertNull(sweep(2));
+  }
+
+  @Test
+  public void deletedSongCantBeLiked() {
+    playlistDriver.likeSong("a", "s1");
+    playlistDriver.deleteSongFromDb("s1");
+
+    DbQueryStatus status = playlistDriver.likeSong("b", "s1");
+
+    assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, status.getdbQueryExecResult());
+    assertEquals(1, neo4j.count("MATCH (:playlist)-[r:includes]->(:song {songId: 's1'}) "
+        + " RETURN count(r)"));
+  }
+
+  @Test
+  public void unlikeKeepsTheTombstone() {
+    playlistDriver.likeSong("a", "s1");
+    playlistDriver.deleteSongFromDb("s1");
+
+    assertEquals(DbQueryExecResult.QUERY_OK,
+        playlistDriver.unlikeSong("a", "s1").getdbQueryExecResult());
+    assertEquals(1, neo4j.count("MATCH (nSong:song {songId: 's1', deleted: true}) "
+        + " RETURN count(nSong)"));
+    assertEquals("s1", sweep(2).get("songId"));
+    assertEquals(0, neo4j.count("MATCH (nSong:song) RETURN count(nSong)"));
+  }
+
+  @Test
+  public void unlikeOfTheLastLikeRemovesALiveSong() {
+    playlistDriver.likeSong("a", "s1");
+
+    playlistDriver.unlikeSong("a", "s1");
+
+    assertEquals(0, neo4j.count("MATCH (nSong:song) RETURN count(nSong)"));
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> sweep(int batchSize) {
+    DbQueryStatus status = playlistDriver.sweepDeletedSong(batchSize);
+    assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+    return (Map<String, Object>) status.getData();
+  }
+}
@@ -0,0 +1,29 @@
+package com.csc301.songmicroservice;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Helpers shared by the benchmarks
+ */
+final class BenchmarkSupport {
+
+  private BenchmarkSupport() {
+  }
+
+  /**
+   * Discards everything printed to System.out from now on. The code under test logs to the console,
+   * which would flood the benchmark output; the lines are still built, so their cost is measured
+   */
+  static void discardStdout() {
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    }));
+  }
+}
@@ -0,0 +1,68 @@
+package com.csc301.songmicroservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What it costs to build and serialize a response: a song's map representation and toString, and
+ * a getSongById response put together with Utils.setResponseStatus and written with Jackson, as
+ * the controllers do. Run with -prof gc for the bytes allocated per call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+  private Song song;
+  private ObjectMapper objectMapper;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkSupport.discardStdout();
+    song = new Song("Never Gonna Give You Up", "Rick Astley", "Whenever You Need Somebody");
+    song.setId(new ObjectId());
+    song.setSongAmountFavourites(42);
+    objectMapper = new ObjectMapper();
+  }
+
+  @Benchmark
+  public Map<String, String> songGetJsonRepresentation() {
+    return song.getJsonRepresentation();
+  }
+
+  @Benchmark
+  public String songToString() {
+    return song.toString();
+  }
+
+  @Benchmark
+  public ApiResponse<Object> setResponseStatus() {
+    ApiResponse<Object> response =
+        new ApiResponse<>("GET http://localhost:3001/getSongById/" + song.getId());
+    response.setMessage("Song found");
+    return Utils.setResponseStatus(response, DbQueryExecResult.QUERY_OK,
+        Collections.singletonList(song));
+  }
+
+  @Benchmark
+  public byte[] setResponseStatusAndSerialize() throws Exception {
+    return objectMapper.writeValueAsBytes(setResponseStatus());
+  }
+}
@@ -0,0 +1,111 @@
+package com.csc301.songmicroservice;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * The SongDalImpl read and update paths, against an in-memory Mongo server
+ * (mongo-java-server) seeded with SONGS songs. Write-behind, the leaderboard and the song cache
+ * are off, so each call goes to the database. The numbers include the wire protocol and the
+ * mapping, but not a real storage engine, so compare them with the baseline rather than with a
+ * production Mongo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SongDalBenchmark {
+
+  private static final int SONGS = 1000;
+  private static final int IDS_PER_BATCH = 100;
+  private static final int PAGE_SIZE = 50;
+
+  private MongoServer server;
+  private MongoClient client;
+  private SongDalImpl songDal;
+  private final List<String> songIds = new ArrayList<>();
+  private List<String> batchIds;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    BenchmarkSupport.discardStdout();
+    server = new MongoServer(new MemoryBackend());
+    InetSocketAddress address = server.bind();
+    client = new MongoClient(new ServerAddress(address));
+    MongoTemplate mongoTemplate = new MongoTemplate(client, "benchmark");
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    FavouritesLeaderboard leaderboard = new FavouritesLeaderboard(registry, false, 100);
+    FavouritesAggregator aggregator = new FavouritesAggregator(mongoTemplate, leaderboard,
+        registry, false, 1000, 10000, 16);
+    songDal = new SongDalImpl(mongoTemplate, aggregator, leaderboard, 604800);
+    songDal.initSongDb();
+
+    List<Song> songs = new ArrayList<>();
+    for (int i = 0; i < SONGS; i++) {
+      songs.add(new Song("Song " + i, "Artist " + (i % 100), "Album " + (i % 500)));
+    }
+    songDal.addSongs(songs);
+    for (Song song : mongoTemplate.findAll(Song.class)) {
+      songIds.add(song.getId());
+    }
+    batchIds = songIds.subList(0, IDS_PER_BATCH);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    client.close();
+    server.shutdownNow();
+  }
+
+  private String randomSongId() {
+    return songIds.get(ThreadLocalRandom.current().nextInt(songIds.size()));
+  }
+
+  @Benchmark
+  public DbQueryStatus findSongById() {
+    return songDal.findSongById(randomSongId());
+  }
+
+  @Benchmark
+  public DbQueryStatus getSongTitleById() {
+    return songDal.getSongTitleById(randomSongId());
+  }
+
+  @Benchmark
+  public DbQueryStatus getSongTitlesByIds() {
+    return songDal.getSongTitlesByIds(batchIds);
+  }
+
+  @Benchmark
+  public DbQueryStatus findSongsByArtist() {
+    return songDal.findSongs(null, PAGE_SIZE, "Artist 7", null);
+  }
+
+  @Benchmark
+  public DbQueryStatus updateSongFavouritesCount() {
+    return songDal.updateSongFavouritesCount(randomSongId(), false);
+  }
+}
@@ -0,0 +1,71 @@
+package com.csc301.songmicroservice;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.http.HttpStatus;
+
+/**
+ * The body every API returns, e.g. { "path" : "GET ...", "message" : "OK", "status" : "OK",
+ * "data" : ... }. Fields that aren't set are left out, and the status is written as its name.
+ * Jackson writes and reads it directly, so no map is built for each response, and it is also what
+ * calls to the Profile Microservice are read into
+ *
+ * @param <T> the type of the data
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ApiResponse<T> {
+
+  private String path;
+  private String message;
+  private HttpStatus status;
+  private T data;
+
+  public ApiResponse() {
+  }
+
+  public ApiResponse(String path) {
+    this.path = path;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public void setMessage(String message) {
+    this.message = message;
+  }
+
+  public HttpStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(HttpStatus status) {
+    this.status = status;
+  }
+
+  public T getData() {
+    return data;
+  }
+
+  public void setData(T data) {
+    this.data = data;
+  }
+
+  /**
+   * @return true if the status is OK
+   */
+  @JsonIgnore
+  public boolean isOk() {
+    return status == HttpStatus.OK;
+  }
+}
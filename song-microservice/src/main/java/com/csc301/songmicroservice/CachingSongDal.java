@@ -0,0 +1,374 @@
+package com.csc301.songmicroservice;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Read-through cache in front of the Song Data Access Layer. Songs read by id are kept in memory,
+ * up to a budget of roughly maxBytes, and ids that aren't in the database can be remembered for a
+ * short time too. Deleting a song or changing its favourite count drops it from the cache. With
+ * write-behind on, a count change is only written on the next flush, so the songs each flush
+ * wrote are dropped again then, or the old count read in between would stay cached.
+ * <p>
+ * A single song is loaded with Cache.get, so an invalidation waits for a load that is running.
+ * Batches are read in one query, so they are only cached if nothing was invalidated meanwhile.
+ */
+@Repository
+@Primary
+public class CachingSongDal implements SongDal {
+
+  /**
+   * Rough size of a cached Song without its strings: the object, its ObjectId and the cache entry
+   */
+  private static final int SONG_OVERHEAD_BYTES = 160;
+
+  private final SongDalImpl songDal;
+  private final boolean enabled;
+  private final boolean notFoundEnabled;
+  private final Cache<ObjectId, Song> songCache;
+  private final Cache<ObjectId, Boolean> notFoundCache;
+  /**
+   * Bumped before every invalidation, so a batch read can tell if it may be out of date
+   */
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * Constructor for the caching Song Data Access Layer
+   *
+   * @param songDal            the data access layer that reads from the database
+   * @param aggregator         tells the cache which songs each write-behind flush wrote
+   * @param registry           where the hit, miss and eviction metrics are registered
+   * @param enabled            false to send every call straight to the database
+   * @param maxBytes           roughly how much memory the cached songs may take
+   * @param ttlSeconds         how long a song stays cached after it was read
+   * @param notFoundEnabled    true to also remember ids that aren't in the database
+   * @param notFoundMaxSize    the most ids that aren't in the database to remember
+   * @param notFoundTtlSeconds how long an id that isn't in the database is remembered
+   */
+  @Autowired
+  public CachingSongDal(SongDalImpl songDal, FavouritesAggregator aggregator,
+      MeterRegistry registry,
+      @Value("${songs.cache.enabled:true}") boolean enabled,
+      @Value("${songs.cache.maxBytes:67108864}") long maxBytes,
+      @Value("${songs.cache.ttlSeconds:300}") long ttlSeconds,
+      @Value("${songs.cache.notFound.enabled:true}") boolean notFoundEnabled,
+      @Value("${songs.cache.notFound.maxSize:100000}") long notFoundMaxSize,
+      @Value("${songs.cache.notFound.ttlSeconds:30}") long notFoundTtlSeconds) {
+    this.songDal = songDal;
+    this.enabled = enabled;
+    this.notFoundEnabled = notFoundEnabled;
+    this.songCache = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher((ObjectId _id, Song song) -> estimateBytes(song))
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    this.notFoundCache = Caffeine.newBuilder()
+        .maximumSize(notFoundMaxSize)
+        .expireAfterWrite(notFoundTtlSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(registry, songCache, "songs");
+    CaffeineCacheMetrics.monitor(registry, notFoundCache, "songsNotFound");
+    aggregator.addFlushListener(_ids -> _ids.forEach(this::invalidate));
+  }
+
+  @Override
+  public DbQueryStatus addSong(Song songToAdd) {
+    DbQueryStatus dbQueryStatus = songDal.addSong(songToAdd);
+    if (enabled && dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+      Song insertedSong = (Song) dbQueryStatus.getData();
+      notFoundCache.invalidate(insertedSong._id);
+      songCache.put(insertedSong._id, insertedSong);
+    }
+    return dbQueryStatus;
+  }
+
+  @Override
+  public DbQueryStatus addSongs(List<Song> songsToAdd) {
+    // bulk loads aren't read back right away, so they aren't cached
+    return songDal.addSongs(songsToAdd);
+  }
+
+  @Override
+  public DbQueryStatus findSongById(String songId) {
+    ObjectId _id = toObjectId(songId);
+    if (!enabled || _id == null) {
+      // let the data access layer report a bad id
+      return songDal.findSongById(songId);
+    }
+    Song song = getSong(_id, songId);
+    if (song == null) {
+      return new DbQueryStatus("NOT FOUND", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(Collections.singletonList(song));
+    return response;
+  }
+
+  @Override
+  public DbQueryStatus getSongTitleById(String songId) {
+    ObjectId _id = toObjectId(songId);
+    if (!enabled || _id == null) {
+      return songDal.getSongTitleById(songId);
+    }
+    Song song = getSong(_id, songId);
+    if (song == null) {
+      return new DbQueryStatus("NOT FOUND", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(song.getSongName());
+    return response;
+  }
+
+  @Override
+  public DbQueryStatus findSongFieldsById(String songId, List<String> fields) {
+    ObjectId _id = toObjectId(songId);
+    Song song = enabled && _id != null ? songCache.getIfPresent(_id) : null;
+    if (song == null || !Song.FIELDS.containsAll(fields)) {
+      // not worth caching a partial song, so misses go straight to the database
+      return songDal.findSongFieldsById(songId, fields);
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(Collections.singletonList(SongFields.of(song, fields)));
+    return response;
+  }
+
+  @Override
+  public DbQueryStatus findSongs(String after, int limit, String songArtistFullName,
+      String songAlbum) {
+    // pages are read once in a while by crawlers, so they aren't cached
+    return songDal.findSongs(after, limit, songArtistFullName, songAlbum);
+  }
+
+  @Override
+  public DbQueryStatus findTopSongs(int limit) {
+    // the leaderboard already keeps the chart in memory
+    return songDal.findTopSongs(limit);
+  }
+
+  @Override
+  public DbQueryStatus searchSongs(String text, int page, int limit) {
+    return songDal.searchSongs(text, page, limit);
+  }
+
+  @Override
+  public DbQueryStatus findSongsByIds(List<String> songIds) {
+    if (!enabled || songIds == null || songIds.size() > SongDalImpl.MAX_BATCH_IDS) {
+      return songDal.findSongsByIds(songIds);
+    }
+    Map<ObjectId, Song> songs = getSongs(songIds);
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(new ArrayList<>(songs.values()));
+    return response;
+  }
+
+  @Override
+  public DbQueryStatus getSongTitlesByIds(List<String> songIds) {
+    if (!enabled || songIds == null || songIds.size() > SongDalImpl.MAX_BATCH_IDS) {
+      return songDal.getSongTitlesByIds(songIds);
+    }
+    Set<ObjectId> _ids = toKnownObjectIds(songIds);
+    Map<ObjectId, Song> cached = songCache.getAllPresent(_ids);
+    List<String> missingIds = new ArrayList<>();
+    for (ObjectId _id : _ids) {
+      if (!cached.containsKey(_id)) {
+        missingIds.add(_id.toHexString());
+      }
+    }
+    // titles aren't worth a whole song in the cache, so misses only read the titles
+    Map<String, String> read = Collections.emptyMap();
+    if (!missingIds.isEmpty()) {
+      DbQueryStatus dbQueryStatus = songDal.getSongTitlesByIds(missingIds);
+      if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
+        return dbQueryStatus;
+      }
+      read = (Map<String, String>) dbQueryStatus.getData();
+    }
+
+    Map<String, String> titles = new LinkedHashMap<>();
+    for (ObjectId _id : _ids) {
+      String songId = _id.toHexString();
+      if (cached.containsKey(_id)) {
+        titles.put(songId, cached.get(_id).getSongName());
+      } else if (read.containsKey(songId)) {
+        titles.put(songId, read.get(songId));
+      }
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(titles);
+    return response;
+  }
+
+  @Override
+  public DbQueryStatus deleteSongById(String songId) {
+    DbQueryStatus dbQueryStatus = songDal.deleteSongById(songId);
+    ObjectId _id = toObjectId(songId);
+    if (_id != null) {
+      invalidate(_id);
+    }
+    return dbQueryStatus;
+  }
+
+  @Override
+  public DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement) {
+    DbQueryStatus dbQueryStatus = songDal.updateSongFavouritesCount(songId, shouldDecrement);
+    ObjectId _id = toObjectId(songId);
+    if (_id != null) {
+      // the cached count is out of date now, or with write-behind on, after the next flush
+      invalidate(_id);
+    }
+    return dbQueryStatus;
+  }
+
+  @Override
+  public DbQueryStatus updateSongsFavouritesCount(Map<String, Long> deltas) {
+    DbQueryStatus dbQueryStatus = songDal.updateSongsFavouritesCount(deltas);
+    if (deltas != null) {
+      for (String songId : deltas.keySet()) {
+        ObjectId _id = toObjectId(songId);
+        if (_id != null) {
+          invalidate(_id);
+        }
+      }
+    }
+    return dbQueryStatus;
+  }
+
+  @Override
+  public DbQueryStatus applyFavouritesUpdates(List<Map<String, Object>> updates) {
+    DbQueryStatus dbQueryStatus = songDal.applyFavouritesUpdates(updates);
+    if (updates != null) {
+      for (Map<String, Object> update : updates) {
+        ObjectId _id = update.get("songId") == null ? null
+            : toObjectId(update.get("songId").toString());
+        if (_id != null) {
+          invalidate(_id);
+        }
+      }
+    }
+    return dbQueryStatus;
+  }
+
+  /**
+   * Returns the song from the cache, or reads it from the database and caches it
+   *
+   * @return the song, or null if it isn't in the database
+   */
+  private Song getSong(ObjectId _id, String songId) {
+    if (notFoundCache.getIfPresent(_id) != null) {
+      return null;
+    }
+    // an invalidate waits for the load, so a load that started before a change isn't kept
+    return songCache.get(_id, key -> {
+      Song song = readSong(songId);
+      if (song == null) {
+        rememberNotFound(key);
+      }
+      return song;
+    });
+  }
+
+  private Song readSong(String songId) {
+    DbQueryStatus dbQueryStatus = songDal.findSongById(songId);
+    if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
+      return null;
+    }
+    return ((List<Song>) dbQueryStatus.getData()).get(0);
+  }
+
+  /**
+   * Returns the songs with the given ids in the order they were asked for, reading the ones that
+   * aren't cached from the database in one query
+   */
+  private Map<ObjectId, Song> getSongs(List<String> songIds) {
+    Set<ObjectId> _ids = toKnownObjectIds(songIds);
+    Map<ObjectId, Song> cached = songCache.getAllPresent(_ids);
+    List<String> missingIds = new ArrayList<>();
+    for (ObjectId _id : _ids) {
+      if (!cached.containsKey(_id)) {
+        missingIds.add(_id.toHexString());
+      }
+    }
+    Map<ObjectId, Song> read = new LinkedHashMap<>();
+    if (!missingIds.isEmpty()) {
+      long invalidationsBefore = invalidations.get();
+      for (Song song : (List<Song>) songDal.findSongsByIds(missingIds).getData()) {
+        read.put(song._id, song);
+      }
+      // a song changed during the read may have been read before the change, so only cache the
+      // batch if nothing was invalidated, and check again after putting it in case one just was
+      if (invalidations.get() == invalidationsBefore) {
+        songCache.putAll(read);
+        if (invalidations.get() != invalidationsBefore) {
+          songCache.invalidateAll(read.keySet());
+        }
+      }
+    }
+
+    Map<ObjectId, Song> songs = new LinkedHashMap<>();
+    for (ObjectId _id : _ids) {
+      Song song = cached.containsKey(_id) ? cached.get(_id) : read.get(_id);
+      if (song != null) {
+        songs.put(_id, song);
+      } else {
+        rememberNotFound(_id);
+      }
+    }
+    return songs;
+  }
+
+  /**
+   * Returns the valid ids that aren't known to be missing from the database, in the given order
+   */
+  private Set<ObjectId> toKnownObjectIds(List<String> songIds) {
+    Set<ObjectId> _ids = new LinkedHashSet<>();
+    for (String songId : songIds) {
+      ObjectId _id = toObjectId(songId);
+      if (_id != null && notFoundCache.getIfPresent(_id) == null) {
+        _ids.add(_id);
+      }
+    }
+    return _ids;
+  }
+
+  private void invalidate(ObjectId _id) {
+    invalidations.incrementAndGet();
+    songCache.invalidate(_id);
+  }
+
+  private void rememberNotFound(ObjectId _id) {
+    if (notFoundEnabled) {
+      notFoundCache.put(_id, Boolean.TRUE);
+    }
+  }
+
+  private static ObjectId toObjectId(String songId) {
+    return songId != null && ObjectId.isValid(songId) ? new ObjectId(songId) : null;
+  }
+
+  private static int estimateBytes(Song song) {
+    return SONG_OVERHEAD_BYTES + 2 * (length(song.getSongName())
+        + length(song.getSongArtistFullName()) + length(song.getSongAlbum()));
+  }
+
+  private static int length(String value) {
+    return value == null ? 0 : value.length();
+  }
+}
@@ -0,0 +1,360 @@
+package com.csc301.songmicroservice;
+
+import com.mongodb.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write-behind buffer for song favourite counts. When enabled, likes and unlikes are added up in
+ * memory per song and written to the database every flush interval as one unordered bulk write of
+ * $inc operations, instead of one write per request
+ */
+@Component
+public class FavouritesAggregator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FavouritesAggregator.class);
+
+  /**
+   * How many times the last flush on shutdown is tried before the buffered updates are given up
+   */
+  private static final int STOP_FLUSH_ATTEMPTS = 3;
+  private static final long STOP_FLUSH_BACKOFF_MS = 200;
+
+  private final MongoTemplate db;
+  private final FavouritesLeaderboard leaderboard;
+  private final boolean enabled;
+  private final long flushIntervalMs;
+  private final int maxPendingSongs;
+
+  /**
+   * The pending deltas, split into stripes that each have their own lock so a flush only blocks
+   * the writers of the stripe it is draining
+   */
+  private final Stripe[] stripes;
+  private final LongAdder pendingUpdates = new LongAdder();
+  private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+  private final AtomicLong lastFlushMillis = new AtomicLong(System.currentTimeMillis());
+
+  /**
+   * Told which songs each flush wrote, e.g. to drop them from a cache
+   */
+  private final List<Consumer<Set<ObjectId>>> flushListeners = new CopyOnWriteArrayList<>();
+
+  private final Counter flushedUpdates;
+  private final Counter droppedUpdates;
+  private final Timer flushTimer;
+
+  private ScheduledExecutorService flusher;
+
+  /**
+   * Constructor for the favourites aggregator
+   *
+   * @param mongoTemplate   Access to the Mongo Database
+   * @param leaderboard     given the counts each flush wrote, since it doesn't see them otherwise
+   * @param registry        where the pending and flush metrics are registered
+   * @param enabled         true if favourite updates should be buffered instead of written directly
+   * @param flushIntervalMs the most time a buffered update waits before it is written
+   * @param maxPendingSongs flush early once this many songs have pending updates
+   * @param stripeCount     how many independently locked stripes the buffer is split into
+   */
+  @Autowired
+  public FavouritesAggregator(MongoTemplate mongoTemplate, FavouritesLeaderboard leaderboard,
+      MeterRegistry registry,
+      @Value("${songs.favourites.writeBehind.enabled:false}") boolean enabled,
+      @Value("${songs.favourites.writeBehind.flushIntervalMs:1000}") long flushIntervalMs,
+      @Value("${songs.favourites.writeBehind.maxPendingSongs:10000}") int maxPendingSongs,
+      @Value("${songs.favourites.writeBehind.stripes:16}") int stripeCount) {
+    this.db = mongoTemplate;
+    this.leaderboard = leaderboard;
+    this.enabled = enabled;
+    this.flushIntervalMs = flushIntervalMs;
+    this.maxPendingSongs = maxPendingSongs;
+    this.stripes = new Stripe[Math.max(1, stripeCount)];
+    for (int i = 0; i < this.stripes.length; i++) {
+      this.stripes[i] = new Stripe();
+    }
+
+    Gauge.builder("songs.favourites.pending.updates", pendingUpdates, LongAdder::sum)
+        .description("Favourite updates buffered since the last flush").register(registry);
+    Gauge.builder("songs.favourites.pending.songs", this, FavouritesAggregator::pendingSongs)
+        .description("Songs with buffered favourite updates").register(registry);
+    Gauge.builder("songs.favourites.flush.age", lastFlushMillis,
+        last -> System.currentTimeMillis() - last.get())
+        .description("Milliseconds since the last flush").baseUnit("milliseconds")
+        .register(registry);
+    this.flushedUpdates = Counter.builder("songs.favourites.flushed")
+        .description("Per-song $inc operations written by flushes").register(registry);
+    this.droppedUpdates = Counter.builder("songs.favourites.dropped")
+        .description("Flushed updates that matched no song, because it is gone or would go < 0")
+        .register(registry);
+    this.flushTimer = Timer.builder("songs.favourites.flush").register(registry);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "favourites-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the periodic flush and writes whatever is still buffered. The write is tried a few times,
+   * and the updates that still couldn't be written are logged so they can be applied by hand
+   */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (flusher == null) {
+      return;
+    }
+    flusher.shutdown();
+    flusher.awaitTermination(flushIntervalMs * 2, TimeUnit.MILLISECONDS);
+    for (int attempt = 1; attempt <= STOP_FLUSH_ATTEMPTS; attempt++) {
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        LOG.warn("could not flush favourite updates on shutdown, attempt {} of {}: {}", attempt,
+            STOP_FLUSH_ATTEMPTS, e.getMessage());
+      }
+      if (pendingSongs() == 0) {
+        return;
+      }
+      if (attempt < STOP_FLUSH_ATTEMPTS) {
+        Thread.sleep(STOP_FLUSH_BACKOFF_MS * attempt);
+      }
+    }
+    LOG.error("lost the favourite count deltas of {} songs on shutdown: {}", pendingSongs(),
+        drain());
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Registers a listener that is given the songs whose counts each flush wrote, on the flushing
+   * thread once the write is done
+   *
+   * @param listener takes the ids of the songs that were written
+   */
+  public void addFlushListener(Consumer<Set<ObjectId>> listener) {
+    flushListeners.add(listener);
+  }
+
+  /**
+   * Buffers a change to the favourite count of a song. Once the aggregator is stopping, the change
+   * is only written by the last flush in stop
+   *
+   * @param _id   the song to update
+   * @param delta how much to change the count by
+   */
+  public void record(ObjectId _id, long delta) {
+    Stripe stripe = stripes[(_id.hashCode() & Integer.MAX_VALUE) % stripes.length];
+    stripe.lock.readLock().lock();
+    try {
+      stripe.deltas.computeIfAbsent(_id, key -> new LongAdder()).add(delta);
+      // counted under the lock, so a drain takes exactly the updates that are in the stripe
+      stripe.updates.increment();
+      pendingUpdates.increment();
+    } finally {
+      stripe.lock.readLock().unlock();
+    }
+    // don't let the buffer grow without bound between flushes
+    if (stripe.deltas.size() * stripes.length > maxPendingSongs && flusher != null
+        && !flusher.isShutdown() && flushRequested.compareAndSet(false, true)) {
+      try {
+        flusher.execute(this::flushQuietly);
+      } catch (RejectedExecutionException e) {
+        // shut down in the meantime, stop flushes what is left
+        flushRequested.set(false);
+      }
+    }
+  }
+
+  /**
+   * Writes every buffered delta to the database in one unordered bulk write
+   *
+   * @return the number of songs whose count was written
+   */
+  public synchronized int flush() {
+    flushRequested.set(false);
+    Map<ObjectId, Long> deltas = drain();
+    lastFlushMillis.set(System.currentTimeMillis());
+    if (deltas.isEmpty()) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    List<ObjectId> order = new ArrayList<>(deltas.size());
+    BulkOperations bulk = incrementAll(db, deltas, order);
+    Set<ObjectId> written = new HashSet<>(deltas.keySet());
+    try {
+      int matched = bulk.execute().getMatchedCount();
+      if (matched < order.size()) {
+        droppedUpdates.increment(order.size() - matched);
+      }
+    } catch (BulkOperationException e) {
+      // put back only the operations that failed, the rest were applied
+      for (BulkWriteError error : e.getErrors()) {
+        ObjectId _id = order.get(error.getIndex());
+        record(_id, deltas.get(_id));
+        written.remove(_id);
+      }
+      LOG.warn("could not flush {} favourite updates", e.getErrors().size());
+    } catch (RuntimeException e) {
+      // nothing was written, try again on the next flush
+      for (Map.Entry<ObjectId, Long> entry : deltas.entrySet()) {
+        record(entry.getKey(), entry.getValue());
+      }
+      throw e;
+    } finally {
+      flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+    updateLeaderboard(db, leaderboard, written);
+    for (Consumer<Set<ObjectId>> listener : flushListeners) {
+      listener.accept(written);
+    }
+    flushedUpdates.increment(order.size());
+    return order.size();
+  }
+
+  /**
+   * Builds one unordered bulk write that adds each delta to the favourite count of its song. A
+   * decrement is only applied if it won't make the count negative
+   *
+   * @param db     Access to the Mongo Database
+   * @param deltas how much to change the count of each song by
+   * @param order  filled with the songs in the order of the operations, to match up bulk errors
+   */
+  static BulkOperations incrementAll(MongoTemplate db, Map<ObjectId, Long> deltas,
+      List<ObjectId> order) {
+    BulkOperations bulk = db.bulkOps(BulkMode.UNORDERED, Song.class);
+    for (Map.Entry<ObjectId, Long> entry : deltas.entrySet()) {
+      long delta = entry.getValue();
+      Query query = new Query(SongDalImpl.notDeleted());
+      query.addCriteria(Criteria.where("_id").is(entry.getKey()));
+      if (delta < 0) {
+        query.addCriteria(Criteria.where(Song.KEY_SONG_AMOUNT_FAVOURITES).gte(-delta));
+      }
+      bulk.updateOne(query, new Update().inc(Song.KEY_SONG_AMOUNT_FAVOURITES, delta)
+          .inc(Song.KEY_FAVOURITES_VERSION, 1));
+      order.add(entry.getKey());
+    }
+    return bulk;
+  }
+
+  /**
+   * Puts the new counts of songs that were just changed in bulk on the leaderboard. A bulk write
+   * doesn't return the new counts, so the songs are read back, with their favouritesVersion so a
+   * count that is out of date by the time it gets there is ignored. If they can't be read, the
+   * board is dropped instead
+   *
+   * @param db          Access to the Mongo Database
+   * @param leaderboard where the counts are put
+   * @param _ids        the songs that were changed
+   */
+  static void updateLeaderboard(MongoTemplate db, FavouritesLeaderboard leaderboard,
+      Collection<ObjectId> _ids) {
+    if (!leaderboard.isEnabled() || _ids.isEmpty()) {
+      return;
+    }
+    Query query = new Query(SongDalImpl.notDeleted());
+    query.addCriteria(Criteria.where("_id").in(_ids));
+    try {
+      leaderboard.updateAll(db.find(query, Song.class));
+    } catch (RuntimeException e) {
+      leaderboard.invalidate();
+      LOG.warn("could not read back {} favourite counts: {}", _ids.size(), e.getMessage());
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      LOG.warn("could not flush favourite updates: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Takes everything out of the buffer, swapping each stripe for an empty one. Only the updates
+   * that were drained are taken off the pending count, since others can be recorded meanwhile
+   */
+  private Map<ObjectId, Long> drain() {
+    Map<ObjectId, Long> deltas = new HashMap<>();
+    for (Stripe stripe : stripes) {
+      ConcurrentHashMap<ObjectId, LongAdder> drained;
+      stripe.lock.writeLock().lock();
+      try {
+        drained = stripe.deltas;
+        stripe.deltas = new ConcurrentHashMap<>();
+        pendingUpdates.add(-stripe.updates.sumThenReset());
+      } finally {
+        stripe.lock.writeLock().unlock();
+      }
+      for (Map.Entry<ObjectId, LongAdder> entry : drained.entrySet()) {
+        long delta = entry.getValue().sum();
+        if (delta != 0) {
+          deltas.put(entry.getKey(), delta);
+        }
+      }
+    }
+    return deltas;
+  }
+
+  private long pendingSongs() {
+    long songs = 0;
+    for (Stripe stripe : stripes) {
+      songs += stripe.deltas.size();
+    }
+    return songs;
+  }
+
+  private static final class Stripe {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile ConcurrentHashMap<ObjectId, LongAdder> deltas = new ConcurrentHashMap<>();
+    private final LongAdder updates = new LongAdder();
+  }
+}
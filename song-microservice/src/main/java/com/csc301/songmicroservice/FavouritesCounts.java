@@ -0,0 +1,60 @@
+package com.csc301.songmicroservice;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+
+/**
+ * What changing many favourite counts at once did, e.g. { "updated" : 2, "skipped" : 0 } from
+ * updateSongsFavouritesCount, or { "applied" : 2, "skipped" : 1, "rejectedKeys" : [ ... ] } from
+ * applySongsFavouritesUpdates. The Profile Microservice reads it into its own FavouritesCounts
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FavouritesCounts {
+
+  private Integer updated;
+  private Integer applied;
+  private final int skipped;
+  private List<String> rejectedKeys;
+
+  private FavouritesCounts(int skipped) {
+    this.skipped = skipped;
+  }
+
+  /**
+   * @param updated how many songs were changed
+   * @param skipped how many songs were missing or couldn't be changed
+   */
+  public static FavouritesCounts updated(int updated, int skipped) {
+    FavouritesCounts counts = new FavouritesCounts(skipped);
+    counts.updated = updated;
+    return counts;
+  }
+
+  /**
+   * @param applied      how many updates were applied
+   * @param skipped      how many updates were invalid, already applied or couldn't be applied
+   * @param rejectedKeys the keys of the updates that would take a count below 0
+   */
+  public static FavouritesCounts applied(int applied, int skipped, List<String> rejectedKeys) {
+    FavouritesCounts counts = new FavouritesCounts(skipped);
+    counts.applied = applied;
+    counts.rejectedKeys = rejectedKeys;
+    return counts;
+  }
+
+  public Integer getUpdated() {
+    return updated;
+  }
+
+  public Integer getApplied() {
+    return applied;
+  }
+
+  public int getSkipped() {
+    return skipped;
+  }
+
+  public List<String> getRejectedKeys() {
+    return rejectedKeys;
+  }
+}
@@ -0,0 +1,273 @@
+package com.csc301.songmicroservice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory chart of the most favourited songs. It is loaded with the top songs from the database
+ * and then kept up to date with every favourite count change, so reading the chart doesn't sort
+ * the collection.
+ * <p>
+ * Only the top size songs are kept, in the same order as the index: highest count first, then by
+ * _id. The floor is the furthest ahead in that order any song that isn't on the board could be, so
+ * the board can answer for as long as the songs it returns are ahead of the floor. When it can't,
+ * or after a change it didn't see, it has to be loaded again.
+ * <p>
+ * Counts can arrive out of order, e.g. from two likes of the same song that finish at the same
+ * time. Every count carries the song's favouritesVersion, and a count older than the last one seen
+ * for the song is ignored.
+ */
+@Component
+public class FavouritesLeaderboard {
+
+  /**
+   * Same order as the {songAmountFavourites: -1, _id: 1} index
+   */
+  private static final Comparator<Song> ORDER = Comparator
+      .comparingLong(Song::getSongAmountFavourites).reversed()
+      .thenComparing(song -> song._id);
+
+  private final boolean enabled;
+  private final int size;
+  private final Counter loads;
+
+  /**
+   * How many versions of songs that aren't on the board are remembered
+   */
+  private static final int OUTSIDE_VERSIONS_KEPT = 10000;
+
+  private final TreeSet<Song> ranking = new TreeSet<>(ORDER);
+  private final Map<ObjectId, Song> members = new HashMap<>();
+  /**
+   * The last version seen of the songs that changed while they weren't on the board, the least
+   * recently changed dropped first
+   */
+  private final Map<ObjectId, Long> outsideVersions =
+      new LinkedHashMap<ObjectId, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ObjectId, Long> eldest) {
+          return size() > OUTSIDE_VERSIONS_KEPT;
+        }
+      };
+  /**
+   * Every song that isn't on the board comes after this one in ORDER, or null if every song is on
+   * it
+   */
+  private Song floor;
+  private boolean loaded;
+  /**
+   * Changes seen since the board stopped being loaded, replayed on the next load. A null value
+   * means the song was deleted
+   */
+  private Map<ObjectId, Song> pending;
+  /**
+   * Bumped whenever changes happen that the board can't replay, so a load that was read before
+   * them is thrown away
+   */
+  private long version;
+
+  /**
+   * Constructor for the favourites leaderboard
+   *
+   * @param registry where the load count is registered
+   * @param enabled  true if the top songs should be read from memory instead of the database
+   * @param size     how many of the top songs are kept
+   */
+  @Autowired
+  public FavouritesLeaderboard(MeterRegistry registry,
+      @Value("${songs.leaderboard.enabled:false}") boolean enabled,
+      @Value("${songs.leaderboard.size:100}") int size) {
+    this.enabled = enabled;
+    this.size = Math.max(1, size);
+    this.loads = Counter.builder("songs.leaderboard.loads")
+        .description("Times the leaderboard was loaded from the database").register(registry);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns the top songs, highest count first
+   *
+   * @param limit how many songs to return, at most size
+   * @return the songs, or null if the board has to be loaded again first
+   */
+  public synchronized List<Song> getTop(int limit) {
+    if (!loaded) {
+      return null;
+    }
+    List<Song> top = new ArrayList<>(limit);
+    for (Song song : ranking) {
+      if (top.size() == limit) {
+        break;
+      }
+      // a song that isn't on the board could be ahead of this one
+      if (isBehindFloor(song)) {
+        return null;
+      }
+      top.add(song);
+    }
+    // songs were deleted from the board and the ones that would replace them aren't known
+    if (top.size() < limit && floor != null) {
+      return null;
+    }
+    return top;
+  }
+
+  /**
+   * Starts loading the board. Changes from now on are kept and replayed on top of the load
+   *
+   * @return the version to pass to load
+   */
+  public synchronized long beginLoad() {
+    if (pending == null) {
+      pending = new HashMap<>();
+    }
+    return version;
+  }
+
+  /**
+   * Replaces the board with the top songs read from the database
+   *
+   * @param songs   the top size songs, highest count first
+   * @param version what beginLoad returned before the songs were read
+   * @return false if the songs are out of date and weren't used
+   */
+  public synchronized boolean load(List<Song> songs, long version) {
+    if (version != this.version || pending == null) {
+      return false;
+    }
+    ranking.clear();
+    members.clear();
+    for (Song song : songs) {
+      ranking.add(song);
+      members.put(song._id, song);
+    }
+    floor = songs.size() < size ? null : songs.get(songs.size() - 1);
+    loaded = true;
+    // the counts are absolute and older ones are ignored, so it doesn't matter if the load already
+    // saw these
+    Map<ObjectId, Song> changes = pending;
+    pending = null;
+    for (Map.Entry<ObjectId, Song> change : changes.entrySet()) {
+      if (change.getValue() == null) {
+        remove(change.getKey());
+      } else {
+        update(change.getValue());
+      }
+    }
+    loads.increment();
+    return true;
+  }
+
+  /**
+   * Puts the new favourite count of a song, or a newly added song, on the board
+   *
+   * @param song the song with its count and favouritesVersion after the change
+   */
+  public synchronized void update(Song song) {
+    if (!loaded) {
+      if (pending != null) {
+        Song seen = pending.get(song._id);
+        // a deleted song stays deleted
+        if (seen == null ? !pending.containsKey(song._id)
+            : seen.getFavouritesVersion() <= song.getFavouritesVersion()) {
+          pending.put(song._id, song);
+        }
+      }
+      return;
+    }
+    Song old = members.get(song._id);
+    if (old != null) {
+      if (old.getFavouritesVersion() > song.getFavouritesVersion()) {
+        return;
+      }
+      members.remove(song._id);
+      ranking.remove(old);
+    } else {
+      Long seen = outsideVersions.get(song._id);
+      if (seen != null && seen > song.getFavouritesVersion()) {
+        return;
+      }
+      if (isBehindFloor(song)) {
+        // still can't be ahead of any song that isn't on the board
+        outsideVersions.put(song._id, song.getFavouritesVersion());
+        return;
+      }
+      outsideVersions.remove(song._id);
+    }
+    ranking.add(song);
+    members.put(song._id, song);
+    if (ranking.size() > size) {
+      Song last = ranking.pollLast();
+      members.remove(last._id);
+      outsideVersions.put(last._id, last.getFavouritesVersion());
+      if (floor == null || ORDER.compare(last, floor) < 0) {
+        floor = last;
+      }
+    }
+  }
+
+  /**
+   * Puts the new favourite counts of many songs on the board, e.g. read back after a bulk write
+   *
+   * @param songs the songs with their counts and favouritesVersions after the change
+   */
+  public synchronized void updateAll(Collection<Song> songs) {
+    for (Song song : songs) {
+      update(song);
+    }
+  }
+
+  /**
+   * Takes a deleted song off the board
+   *
+   * @param _id the song that was deleted
+   */
+  public synchronized void remove(ObjectId _id) {
+    if (!loaded) {
+      if (pending != null) {
+        pending.put(_id, null);
+      }
+      return;
+    }
+    Song old = members.remove(_id);
+    if (old != null) {
+      ranking.remove(old);
+    }
+  }
+
+  /**
+   * Drops the board after counts changed without it seeing them, e.g. after a bulk insert or a
+   * bulk write that failed part way
+   */
+  public synchronized void invalidate() {
+    loaded = false;
+    pending = null;
+    version++;
+  }
+
+  /**
+   * Returns true if a song that isn't on the board could be ahead of the song
+   */
+  private boolean isBehindFloor(Song song) {
+    return floor != null && ORDER.compare(song, floor) > 0;
+  }
+}
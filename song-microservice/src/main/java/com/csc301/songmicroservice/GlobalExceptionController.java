@@ -1,7 +1,5 @@
 package com.csc301.songmicroservice;
 
-import java.util.HashMap;
-import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -13,12 +11,12 @@ public class GlobalExceptionController {
 
   @ExceptionHandler(NoHandlerFoundException.class)
   public @ResponseBody
-  Map<String, Object> handleError404(HttpServletRequest request, Exception e) {
+  ApiResponse<Object> handleError404(HttpServletRequest request, Exception e) {
     DbQueryStatus dbQueryStatus = new DbQueryStatus("No Handler Found for Path",
         DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
-    Map<String, Object> response = new HashMap<String, Object>();
-    response.put("path", String.format("POST %s", Utils.getUrl(request)));
-    response.put("message", dbQueryStatus.getMessage());
+    ApiResponse<Object> response =
+        new ApiResponse<>(String.format("POST %s", Utils.getUrl(request)));
+    response.setMessage(dbQueryStatus.getMessage());
     return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
   }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package com.csc301.songmicroservice;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Holds requests back before they are handled, to see how the Profile Microservice copes when
+ * this service slows down, e.g. in the load test. Off unless delayMs or jitterMs is set
+ */
+@Component
+public class LatencyInjectionFilter extends OncePerRequestFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LatencyInjectionFilter.class);
+
+  private final long delayMs;
+  private final long jitterMs;
+  private final List<String> paths;
+
+  /**
+   * Constructor for the latency injection filter
+   *
+   * @param delayMs  how long every matching request is held back
+   * @param jitterMs up to how much longer a request is held back, picked at random
+   * @param paths    the path prefixes to slow down, separated by commas; empty for every path
+   */
+  public LatencyInjectionFilter(@Value("${faults.latency.delayMs:0}") long delayMs,
+      @Value("${faults.latency.jitterMs:0}") long jitterMs,
+      @Value("${faults.latency.paths:}") String paths) {
+    this.delayMs = Math.max(0, delayMs);
+    this.jitterMs = Math.max(0, jitterMs);
+    this.paths = Arrays.stream(paths.split(",")).map(String::trim).filter(path -> !path.isEmpty())
+        .collect(Collectors.toList());
+    if (isEnabled()) {
+      LOG.info("injecting {}ms + up to {}ms of latency into {}", this.delayMs, this.jitterMs,
+          this.paths.isEmpty() ? "every path" : this.paths);
+    }
+  }
+
+  public boolean isEnabled() {
+    return delayMs > 0 || jitterMs > 0;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    if (!isEnabled()) {
+      return true;
+    }
+    if (paths.isEmpty()) {
+      return false;
+    }
+    String path = request.getServletPath();
+    return paths.stream().noneMatch(path::startsWith);
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    long sleepMs = delayMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+    try {
+      Thread.sleep(sleepMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    filterChain.doFilter(request, response);
+  }
+}
@@ -0,0 +1,35 @@
+package com.csc301.songmicroservice;
+
+import com.mongodb.MongoClientOptions;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The metrics that aren't recorded out of the box. Every request to a controller is timed as
+ * http.server.requests and every call to the Profile Microservice as http.client.requests; this
+ * adds a timer per Data Access Layer method (songs.dal) and the Mongo connection pool gauges
+ */
+@Configuration
+public class MetricsConfig {
+
+  /**
+   * Times the methods annotated with @Timed
+   */
+  @Bean
+  public TimedAspect timedAspect(MeterRegistry registry) {
+    return new TimedAspect(registry);
+  }
+
+  /**
+   * The options the Mongo client is built with, which are the driver defaults plus a listener
+   * keeping the connection pool gauges
+   */
+  @Bean
+  public MongoClientOptions mongoClientOptions(MeterRegistry registry) {
+    return MongoClientOptions.builder()
+        .addConnectionPoolListener(new MongoPoolMetrics(registry))
+        .build();
+  }
+}
@@ -0,0 +1,111 @@
+package com.csc301.songmicroservice;
+
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionAddedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolListenerAdapter;
+import com.mongodb.event.ConnectionPoolOpenedEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueEnteredEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueExitedEvent;
+import com.mongodb.event.ConnectionRemovedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps gauges of the Mongo driver's connection pool to each server: the connections open, the
+ * ones in use and the threads waiting for one. The gauges are tagged with the server's address and
+ * use the names later Micrometer versions give them
+ */
+public class MongoPoolMetrics extends ConnectionPoolListenerAdapter {
+
+  private final MeterRegistry registry;
+
+  private final Map<ServerId, AtomicInteger> poolSize = new ConcurrentHashMap<>();
+  private final Map<ServerId, AtomicInteger> checkedOut = new ConcurrentHashMap<>();
+  private final Map<ServerId, AtomicInteger> waitQueueSize = new ConcurrentHashMap<>();
+  private final Map<ServerId, List<Meter>> meters = new ConcurrentHashMap<>();
+
+  public MongoPoolMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void connectionPoolOpened(ConnectionPoolOpenedEvent event) {
+    ServerId serverId = event.getServerId();
+    Tags tags = Tags.of("server", serverId.getAddress().toString());
+    List<Meter> serverMeters = new ArrayList<>();
+    serverMeters.add(register("mongodb.driver.pool.size", "Connections open in the pool",
+        tags, poolSize, serverId));
+    serverMeters.add(register("mongodb.driver.pool.checkedout", "Connections in use",
+        tags, checkedOut, serverId));
+    serverMeters.add(register("mongodb.driver.pool.waitqueuesize",
+        "Threads waiting for a connection", tags, waitQueueSize, serverId));
+    meters.put(serverId, serverMeters);
+  }
+
+  @Override
+  public void connectionPoolClosed(ConnectionPoolClosedEvent event) {
+    ServerId serverId = event.getServerId();
+    List<Meter> serverMeters = meters.remove(serverId);
+    if (serverMeters != null) {
+      serverMeters.forEach(registry::remove);
+    }
+    poolSize.remove(serverId);
+    checkedOut.remove(serverId);
+    waitQueueSize.remove(serverId);
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    add(checkedOut, event.getConnectionId().getServerId(), 1);
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    add(checkedOut, event.getConnectionId().getServerId(), -1);
+  }
+
+  @Override
+  public void connectionAdded(ConnectionAddedEvent event) {
+    add(poolSize, event.getConnectionId().getServerId(), 1);
+  }
+
+  @Override
+  public void connectionRemoved(ConnectionRemovedEvent event) {
+    add(poolSize, event.getConnectionId().getServerId(), -1);
+  }
+
+  @Override
+  public void waitQueueEntered(ConnectionPoolWaitQueueEnteredEvent event) {
+    add(waitQueueSize, event.getServerId(), 1);
+  }
+
+  @Override
+  public void waitQueueExited(ConnectionPoolWaitQueueExitedEvent event) {
+    add(waitQueueSize, event.getServerId(), -1);
+  }
+
+  private Meter register(String name, String description, Tags tags,
+      Map<ServerId, AtomicInteger> values, ServerId serverId) {
+    AtomicInteger value = values.computeIfAbsent(serverId, id -> new AtomicInteger());
+    return Gauge.builder(name, value, AtomicInteger::get)
+        .description(description).tags(tags).register(registry);
+  }
+
+  private static void add(Map<ServerId, AtomicInteger> values, ServerId serverId, int delta) {
+    AtomicInteger value = values.get(serverId);
+    // events for a pool that was closed meanwhile are dropped
+    if (value != null) {
+      value.addAndGet(delta);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.csc301.songmicroservice;
+
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * The HTTP client used for every call to the other microservice. It is shared so connections are
+ * pooled and kept alive between calls instead of being opened for each one
+ */
+@Configuration
+public class RestClientConfig {
+
+  /**
+   * Builds the OkHttp client that owns the connection pool
+   *
+   * @param maxIdleConnections the most idle connections kept open to the other microservice
+   * @param keepAliveMs        how long an idle connection is kept open before it is closed
+   * @param connectTimeoutMs   how long to wait for a connection to be opened
+   * @param readTimeoutMs      how long to wait for the other microservice to answer
+   */
+  @Bean
+  public OkHttpClient okHttpClient(
+      @Value("${interservice.http.maxIdleConnections:20}") int maxIdleConnections,
+      @Value("${interservice.http.keepAliveMs:300000}") long keepAliveMs,
+      @Value("${interservice.http.connectTimeoutMs:1000}") long connectTimeoutMs,
+      @Value("${interservice.http.readTimeoutMs:5000}") long readTimeoutMs) {
+    return new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMs, TimeUnit.MILLISECONDS))
+        .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+        .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+        .writeTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  @Bean
+  public RestTemplate restTemplate(RestTemplateBuilder builder, OkHttpClient okHttpClient) {
+    return builder.requestFactory(() -> new OkHttp3ClientHttpRequestFactory(okHttpClient)).build();
+  }
+}
@@ -1,7 +1,10 @@
 package com.csc301.songmicroservice;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
@@ -13,6 +16,13 @@ public class Song {
   public static final String KEY_SONG_NAME = "songName";
   public static final String KEY_SONG_ARTIST_FULL_NAME = "songArtistFullName";
   public static final String KEY_SONG_ALBUM = "songAlbum";
+  public static final String KEY_SONG_AMOUNT_FAVOURITES = "songAmountFavourites";
+  // bumped with every change to songAmountFavourites, so counts read at different times can be
+  // told apart
+  public static final String KEY_FAVOURITES_VERSION = "favouritesVersion";
+  // the fields that can be asked for on their own
+  public static final List<String> FIELDS = Collections.unmodifiableList(Arrays
+      .asList(KEY_SONG_NAME, KEY_SONG_ARTIST_FULL_NAME, KEY_SONG_ALBUM, KEY_SONG_AMOUNT_FAVOURITES));
   @Id
   @JsonIgnore
   public ObjectId _id;
@@ -20,7 +30,7 @@ public class Song {
   private String songArtistFullName;
   private String songAlbum;
   private long songAmountFavourites;
-
+  private long favouritesVersion;
 
   public Song(String songName, String songArtistFullName, String songAlbum) {
     this.songName = songName;
@@ -61,6 +71,15 @@ public class Song {
     this.songAmountFavourites = songAmountFavourites;
   }
 
+  @JsonIgnore
+  public long getFavouritesVersion() {
+    return favouritesVersion;
+  }
+
+  public void setFavouritesVersion(long favouritesVersion) {
+    this.favouritesVersion = favouritesVersion;
+  }
+
   // ObjectId needs to be converted to string
   public String getId() {
     return _id.toHexString();
@@ -70,19 +89,29 @@ public class Song {
     this._id = _id;
   }
 
+  /**
+   * Written straight into one builder, in the same form the map representation prints as, since
+   * the songs are logged on every request
+   */
   @Override
   public String toString() {
-    return this.getJsonRepresentation().toString();
+    return new StringBuilder(160)
+        .append("{id=").append(_id == null ? null : _id.toHexString())
+        .append(", songName=").append(songName)
+        .append(", songArtistFullName=").append(songArtistFullName)
+        .append(", songAlbum=").append(songAlbum)
+        .append(", songAmountFavourites=").append(songAmountFavourites)
+        .append('}').toString();
   }
 
   @JsonIgnore
   public Map<String, String> getJsonRepresentation() {
-    HashMap<String, String> jsonRepresentation = new HashMap<String, String>();
+    Map<String, String> jsonRepresentation = new LinkedHashMap<String, String>(8);
     jsonRepresentation.put("id", this.getId());
     jsonRepresentation.put("songName", this.songName);
     jsonRepresentation.put("songArtistFullName", this.songArtistFullName);
     jsonRepresentation.put("songAlbum", this.songAlbum);
-    jsonRepresentation.put("songAmountFavourites", String.valueOf(this.songAmountFavourites));
+    jsonRepresentation.put("songAmountFavourites", Long.toString(this.songAmountFavourites));
 
     return jsonRepresentation;
   }
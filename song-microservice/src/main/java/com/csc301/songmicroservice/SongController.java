@@ -1,19 +1,23 @@
 package com.csc301.songmicroservice;
 
-import java.util.HashMap;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.RestTemplate;
 
 @RestController
 @RequestMapping("/")
@@ -31,36 +35,62 @@ public class SongController {
 	@Autowired
 	private final SongDal songDal;
 
+	/**
+	 * Finishes deleting the songs in the background
+	 */
+	private final SongDeletionSweeper songDeletionSweeper;
+
+	/**
+	 * Reads the songs sent to /addSongs one at a time
+	 */
+	private final ObjectReader songReader;
+
+	private final int bulkInsertBatchSize;
+
+	private final int bulkInsertMaxBatchSize;
+
 	/**
 	 * Constructor for the SongController
 	 *
-	 * @param songDal the data access layer
+	 * @param songDal                the data access layer
+	 * @param songDeletionSweeper    finishes deleting the songs in the background
+	 * @param objectMapper           used to read the songs sent to /addSongs
+	 * @param bulkInsertBatchSize    how many songs /addSongs inserts at once by default
+	 * @param bulkInsertMaxBatchSize the most songs /addSongs inserts at once
 	 */
-	public SongController(SongDal songDal) {
+	public SongController(SongDal songDal, SongDeletionSweeper songDeletionSweeper,
+			ObjectMapper objectMapper,
+			@Value("${songs.bulkInsert.batchSize:1000}") int bulkInsertBatchSize,
+			@Value("${songs.bulkInsert.maxBatchSize:10000}") int bulkInsertMaxBatchSize) {
 		this.songDal = songDal;
+		this.songDeletionSweeper = songDeletionSweeper;
+		this.songReader = objectMapper.readerFor(Map.class);
+		this.bulkInsertBatchSize = bulkInsertBatchSize;
+		this.bulkInsertMaxBatchSize = bulkInsertMaxBatchSize;
 	}
 
 	/**
 	 * Returns the response to the GET API for getting the song when given an id
 	 *
 	 * @param songId  The id for the song you want to get
+	 * @param fields  Optional, the only fields of the song you want, e.g. fields=songName,songAlbum
 	 * @param request provide request information for HTTP servlets
 	 * @return "status":"OK" if request was successfully
 	 */
 	@RequestMapping(value = "/getSongById/{songId}", method = RequestMethod.GET)
 	@ResponseBody
-	public Map<String, Object> getSongById(@PathVariable("songId") String songId,
+	public ApiResponse<List<?>> getSongById(@PathVariable("songId") String songId,
+			@RequestParam(value = "fields", required = false) List<String> fields,
 			HttpServletRequest request) {
 
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("GET %s", Utils.getUrl(request)));
+		ApiResponse<List<?>> response = new ApiResponse<>(String.format("GET %s", Utils.getUrl(request)));
 		// call the DAL object and return the response
-		DbQueryStatus dbQueryStatus = songDal.findSongById(songId);
+		DbQueryStatus dbQueryStatus = fields == null || fields.isEmpty() ? songDal.findSongById(songId)
+				: songDal.findSongFieldsById(songId, fields);
 
-		System.out.println("dbquery: " + dbQueryStatus.toString());
-		response.put("message", dbQueryStatus.getMessage());
-		response = Utils
-				.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(List<?>) dbQueryStatus.getData());
 		return response;
 	}
 
@@ -73,24 +103,144 @@ public class SongController {
 	 */
 	@RequestMapping(value = "/getSongTitleById/{songId}", method = RequestMethod.GET)
 	@ResponseBody
-	public Map<String, Object> getSongTitleById(@PathVariable("songId") String songId,
+	public ApiResponse<String> getSongTitleById(@PathVariable("songId") String songId,
 			HttpServletRequest request) {
 
-		songDal.getSongTitleById(songId);
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("GET %s", Utils.getUrl(request)));
+		ApiResponse<String> response = new ApiResponse<>(String.format("GET %s", Utils.getUrl(request)));
 		// call the database
 		DbQueryStatus dbQueryStatus = songDal.getSongTitleById(songId);
 
-		response.put("message", dbQueryStatus.getMessage());
-		response = Utils
-				.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(String) dbQueryStatus.getData());
+
+		return response;
+	}
+
+	/**
+	 * Returns the response to the GET API for listing the songs one page at a time
+	 *
+	 * @param after              Optional, the "next" token of the previous page
+	 * @param limit              Optional, the most songs to return
+	 * @param songArtistFullName Optional, only list songs by this artist
+	 * @param songAlbum          Optional, only list songs on this album
+	 * @param request            provide request information for HTTP servlets
+	 * @return "status":"OK" if request was successfully, with the songs and the "next" token, which
+	 *         is null on the last page
+	 */
+	@RequestMapping(value = "/getSongs", method = RequestMethod.GET)
+	@ResponseBody
+	public ApiResponse<SongPage> getSongs(@RequestParam(value = "after", required = false) String after,
+			@RequestParam(value = "limit", defaultValue = "50") int limit,
+			@RequestParam(value = "songArtistFullName", required = false) String songArtistFullName,
+			@RequestParam(value = "songAlbum", required = false) String songAlbum,
+			HttpServletRequest request) {
+
+		ApiResponse<SongPage> response = new ApiResponse<>(String.format("GET %s", Utils.getUrl(request)));
+		DbQueryStatus dbQueryStatus = songDal.findSongs(after, limit, songArtistFullName, songAlbum);
+
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(SongPage) dbQueryStatus.getData());
+		return response;
+	}
+
+	/**
+	 * Returns the response to the GET API for getting the most favourited songs
+	 *
+	 * @param limit   Optional, how many songs to return
+	 * @param request provide request information for HTTP servlets
+	 * @return "status":"OK" if request was successfully, with the songs, highest count first
+	 */
+	@RequestMapping(value = "/getTopSongs", method = RequestMethod.GET)
+	@ResponseBody
+	public ApiResponse<List<Song>> getTopSongs(@RequestParam(value = "limit", defaultValue = "10") int limit,
+			HttpServletRequest request) {
+
+		ApiResponse<List<Song>> response = new ApiResponse<>(String.format("GET %s", Utils.getUrl(request)));
+		DbQueryStatus dbQueryStatus = songDal.findTopSongs(limit);
+
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(List<Song>) dbQueryStatus.getData());
+		return response;
+	}
+
+	/**
+	 * Returns the response to the GET API for searching the song names, artists and albums
+	 *
+	 * @param query   the words to search for
+	 * @param page    Optional, which page of results to return, starting at 0
+	 * @param limit   Optional, the most songs on a page
+	 * @param request provide request information for HTTP servlets
+	 * @return "status":"OK" if request was successfully, with the songs, best match first, and how
+	 *         long the query took
+	 */
+	@RequestMapping(value = "/searchSongs", method = RequestMethod.GET)
+	@ResponseBody
+	public ApiResponse<SongSearchResults> searchSongs(@RequestParam("query") String query,
+			@RequestParam(value = "page", defaultValue = "0") int page,
+			@RequestParam(value = "limit", defaultValue = "20") int limit,
+			HttpServletRequest request) {
+
+		ApiResponse<SongSearchResults> response = new ApiResponse<>(String.format("GET %s", Utils.getUrl(request)));
+		DbQueryStatus dbQueryStatus = songDal.searchSongs(query, page, limit);
+
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(SongSearchResults) dbQueryStatus.getData());
+		return response;
+	}
 
+	/**
+	 * Returns the response to the POST API for getting many songs in one call when given their ids
+	 *
+	 * @param songIds The ids for the songs you want to get, as a JSON array
+	 * @param request provide request information for HTTP servlets
+	 * @return "status":"OK" if request was successfully
+	 */
+	@RequestMapping(value = "/getSongsByIds", method = RequestMethod.POST)
+	@ResponseBody
+	public ApiResponse<List<Song>> getSongsByIds(@RequestBody List<String> songIds,
+			HttpServletRequest request) {
+
+		ApiResponse<List<Song>> response = new ApiResponse<>(String.format("POST %s", Utils.getUrl(request)));
+		// call the database once for all the ids
+		DbQueryStatus dbQueryStatus = songDal.findSongsByIds(songIds);
+
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(List<Song>) dbQueryStatus.getData());
 		return response;
 	}
 
 	/**
-	 * Returns the response to the DELETE API for deleting the song provided the song id
+	 * Returns the response to the POST API for getting many song titles in one call when given their
+	 * ids. The data maps each song id that was found to its title
+	 *
+	 * @param songIds The ids for the song titles you want to get, as a JSON array
+	 * @param request provide request information for HTTP servlets
+	 * @return "status":"OK" if request was successfully
+	 */
+	@RequestMapping(value = "/getSongTitlesByIds", method = RequestMethod.POST)
+	@ResponseBody
+	public ApiResponse<Map<String, String>> getSongTitlesByIds(@RequestBody List<String> songIds,
+			HttpServletRequest request) {
+
+		ApiResponse<Map<String, String>> response = new ApiResponse<>(String.format("POST %s", Utils.getUrl(request)));
+		// call the database once for all the ids
+		DbQueryStatus dbQueryStatus = songDal.getSongTitlesByIds(songIds);
+
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(Map<String, String>) dbQueryStatus.getData());
+		return response;
+	}
+
+	/**
+	 * Returns the response to the DELETE API for deleting the song provided the song id. The song
+	 * is marked as deleted and gone from every API straight away, and removed from the profiles'
+	 * playlists and then from the database in the background
 	 *
 	 * @param songId  The id for the song you want to delete
 	 * @param request provide request information for HTTP servlets
@@ -98,25 +248,18 @@ public class SongController {
 	 */
 	@RequestMapping(value = "/deleteSongById/{songId}", method = RequestMethod.DELETE)
 	@ResponseBody
-	public Map<String, Object> deleteSongById(@PathVariable("songId") String songId,
+	public ApiResponse<Object> deleteSongById(@PathVariable("songId") String songId,
 			HttpServletRequest request) {
-		DbQueryStatus dbQueryStatus = new DbQueryStatus("Default", DbQueryExecResult.QUERY_OK);
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("DELETE %s", Utils.getUrl(request)));
-
-		// delete from the database
-		if (callDeleteAllSongsFromDB(songId)) { // if true, song exists and is deleted
-			// delete from the database
-			dbQueryStatus = songDal.deleteSongById(songId);
-			if (dbQueryStatus.getdbQueryExecResult() != DbQueryExecResult.QUERY_OK) {
-				// not deleted
-				response.put("message", dbQueryStatus.getMessage());
-			}
-		} else { // song doesnt exist or issue when deleting
-			response.put("message", "Song does not exist or could not be deleted");
-			dbQueryStatus.setdbQueryExecResult(DbQueryExecResult.QUERY_ERROR_GENERIC);
+		ApiResponse<Object> response = new ApiResponse<>(String.format("DELETE %s", Utils.getUrl(request)));
+
+		// mark as deleted in the database, the sweeper does the rest
+		DbQueryStatus dbQueryStatus = songDal.deleteSongById(songId);
+		if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+			songDeletionSweeper.sweepSoon();
+		} else {
+			// not deleted
+			response.setMessage(dbQueryStatus.getMessage());
 		}
-		System.out.println("message we're returning: " + response.get("message"));
 		return Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), null);
 	}
 
@@ -131,16 +274,14 @@ public class SongController {
 	 */
 	@RequestMapping(value = "/addSong", method = RequestMethod.POST)
 	@ResponseBody
-	public Map<String, Object> addSong(@RequestParam Map<String, String> params,
+	public ApiResponse<Song> addSong(@RequestParam Map<String, String> params,
 			HttpServletRequest request) {
 
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("path", String.format("POST %s", Utils.getUrl(request)));
-		System.out.println("params" + params);
+		ApiResponse<Song> response = new ApiResponse<>(String.format("POST %s", Utils.getUrl(request)));
 		// create a song obj and try and enter it into the database
 		if (!params.containsKey("songName") || !params.containsKey("songArtistFullName") || !params
 				.containsKey("songAlbum")) {
-			response.put("message", "Missing required parameters");
+			response.setMessage("Missing required parameters");
 			response = Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
 			return response;
 		}
@@ -148,12 +289,121 @@ public class SongController {
 				params.get("songAlbum"));
 		DbQueryStatus dbQueryStatus = songDal.addSong(toInsert);
 
-		response.put("message", dbQueryStatus.getMessage());
-		response = Utils
-				.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(Song) dbQueryStatus.getData());
 		return response;
 	}
 
+	/**
+	 * Returns the response to the POST API for adding many songs at once. The body is either
+	 * newline-delimited JSON, one song per line, or a JSON array of songs, and each song has
+	 * "songName", "songArtistFullName" and "songAlbum". The body is read a song at a time and the
+	 * songs are inserted in batches, so it doesn't have to fit in memory
+	 *
+	 * @param batchSize Optional, how many songs to insert at once
+	 * @param request   provide request information for HTTP servlets
+	 * @return "status":"OK" if every song could be read, with the number of songs inserted and
+	 *         rejected in each batch
+	 */
+	@RequestMapping(value = "/addSongs", method = RequestMethod.POST)
+	@ResponseBody
+	public ApiResponse<SongInsertResults> addSongs(@RequestParam(value = "batchSize", required = false)
+			Integer batchSize, HttpServletRequest request) {
+
+		ApiResponse<SongInsertResults> response = new ApiResponse<>(String.format("POST %s", Utils.getUrl(request)));
+		int size = Math.min(batchSize == null ? bulkInsertBatchSize : batchSize,
+				bulkInsertMaxBatchSize);
+		if (size < 1) {
+			response.setMessage("batchSize must be at least 1");
+			response = Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
+			return response;
+		}
+
+		SongInsertResults results = new SongInsertResults();
+		long item = 0;
+		List<Song> batch = new ArrayList<>(size);
+		String failure = null;
+		// insertBatch doesn't throw, so anything caught here is a problem with the body
+		try (MappingIterator<Map<String, Object>> songs = songReader
+				.readValues(request.getInputStream())) {
+			while (failure == null && songs.hasNextValue()) {
+				Map<String, Object> fields = songs.nextValue();
+				batch.add(new Song(getField(fields, Song.KEY_SONG_NAME),
+						getField(fields, Song.KEY_SONG_ARTIST_FULL_NAME), getField(fields, Song.KEY_SONG_ALBUM)));
+				item++;
+				if (batch.size() == size) {
+					failure = insertBatch(batch, item - batch.size(), results);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// the songs before the bad one are kept, the rest of the body isn't read
+			insertBatch(batch, item - batch.size(), results);
+			failure = "Stopped at song " + item + ": " + e.getMessage();
+		}
+		if (failure == null) {
+			failure = insertBatch(batch, item - batch.size(), results);
+		}
+		if (failure != null) {
+			response.setMessage(failure);
+			response = Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
+			// still tell the client which songs made it in
+			response.setData(results);
+			return response;
+		}
+
+		response.setMessage("OK");
+		response = Utils.setResponseStatus(response, DbQueryExecResult.QUERY_OK, results);
+		return response;
+	}
+
+	/**
+	 * Inserts one batch of songs for /addSongs, adds its counts to the results and empties it, so
+	 * a batch is never inserted twice
+	 *
+	 * @param batch     the songs to insert
+	 * @param firstItem the position in the request body of the first song in the batch
+	 * @param results   the results of the batches so far
+	 * @return why the database couldn't take the batch, or null if it could
+	 */
+	private String insertBatch(List<Song> batch, long firstItem, SongInsertResults results) {
+		if (batch.isEmpty()) {
+			return null;
+		}
+		int rejected = batch.size();
+		DbQueryStatus dbQueryStatus;
+		String failure = null;
+		try {
+			dbQueryStatus = songDal.addSongs(batch);
+		} catch (RuntimeException e) {
+			failure = "Songs not added to DB at batch " + results.getBatches().size() + ": "
+					+ e.getMessage();
+			dbQueryStatus = new DbQueryStatus(e.getMessage(), DbQueryExecResult.QUERY_ERROR_GENERIC);
+		} finally {
+			batch.clear();
+		}
+		SongInsertBatch result;
+		if (dbQueryStatus.getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+			SongInsertBatch counts = (SongInsertBatch) dbQueryStatus.getData();
+			List<SongInsertError> errors = new ArrayList<>(counts.getErrors().size());
+			for (SongInsertError error : counts.getErrors()) {
+				// report where the song was in the request body, not in the batch
+				errors.add(new SongInsertError(firstItem + error.getIndex(), error.getMessage()));
+			}
+			result = new SongInsertBatch(counts.getInserted(), counts.getRejected(), errors);
+		} else {
+			result = new SongInsertBatch(0, rejected, Collections.singletonList(
+					new SongInsertError(null, dbQueryStatus.getMessage())));
+		}
+		results.add(result);
+		return failure;
+	}
+
+	private static String getField(Map<String, Object> fields, String key) {
+		Object value = fields == null ? null : fields.get(key);
+		return value == null ? null : value.toString();
+	}
+
 	/**
 	 * Returns the response to the PUT API for updating the favourite count of the song when provided
 	 * with the id
@@ -166,15 +416,14 @@ public class SongController {
 	 */
 	@RequestMapping(value = "/updateSongFavouritesCount/{songId}", method = RequestMethod.PUT)
 	@ResponseBody
-	public Map<String, Object> updateFavouritesCount(@PathVariable("songId") String songId,
+	public ApiResponse<Object> updateFavouritesCount(@PathVariable("songId") String songId,
 			@RequestParam("shouldDecrement") String shouldDecrement, HttpServletRequest request) {
 
-		Map<String, Object> response = new HashMap<String, Object>();
-		response.put("data", String.format("PUT %s", Utils.getUrl(request)));
-		System.out.println(shouldDecrement);
-		System.out.println(songId);
+		ApiResponse<Object> response = new ApiResponse<>();
+		// this API has always returned its path as the data
+		response.setData(String.format("PUT %s", Utils.getUrl(request)));
 		if (songId.isEmpty() || shouldDecrement.isEmpty()) {
-			response.put("message", "Missing required parameters");
+			response.setMessage("Missing required parameters");
 			response = Utils.setResponseStatus(response, DbQueryExecResult.QUERY_ERROR_GENERIC, null);
 			return response;
 		}
@@ -182,32 +431,58 @@ public class SongController {
 		DbQueryStatus dbQueryStatus = songDal
 				.updateSongFavouritesCount(songId, Boolean.valueOf(shouldDecrement));
 
-		response.put("message", dbQueryStatus.getMessage());
+		response.setMessage(dbQueryStatus.getMessage());
 		response = Utils
 				.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(), dbQueryStatus.getData());
 		return response;
 	}
 
 	/**
-	 * Returns true if songId was successfully deleted from the profile database. Otherwise, returns
-	 * false
+	 * Returns the response to the PUT API for updating the favourite counts of many songs at once
 	 *
-	 * @param songId The id for the song you want to delete
-	 * @return boolean if the song was successfully deleted
-	 */
-	private boolean callDeleteAllSongsFromDB(String songId) {
-		RestTemplate restTemplate = new RestTemplate();
-		final String uri = "http://localhost:3002/deleteAllSongsFromDb/{songId}";
-		// add pathVariables
-		Map<String, String> uriVariables = new HashMap<>();
-		uriVariables.put("songId", songId);
-		// creates object type to use as return type in exchange
-		ParameterizedTypeReference<Map<String, Object>> typeRef = new ParameterizedTypeReference<Map<String, Object>>() {
-		};
-		ResponseEntity<Map<String, Object>> result = restTemplate
-				.exchange(uri, HttpMethod.PUT, null, typeRef,
-						uriVariables);
-		return (result.getBody().get("status").toString().compareTo("OK") == 0);
-		// return false;
+	 * @param deltas  how much to change the count of each song by, e.g.
+	 *                {"5d61728193528481fe5a3124": 1, "5d61728193528481fe5a3125": -1}
+	 * @param request provide request information for HTTP servlets
+	 * @return "status":"OK" if request was successfully, with the number of songs updated and
+	 *         skipped
+	 */
+	@RequestMapping(value = "/updateSongsFavouritesCount", method = RequestMethod.PUT)
+	@ResponseBody
+	public ApiResponse<FavouritesCounts> updateSongsFavouritesCount(@RequestBody Map<String, Long> deltas,
+			HttpServletRequest request) {
+
+		ApiResponse<FavouritesCounts> response = new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
+		// one bulk write for all the songs
+		DbQueryStatus dbQueryStatus = songDal.updateSongsFavouritesCount(deltas);
+
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(FavouritesCounts) dbQueryStatus.getData());
+		return response;
+	}
+
+	/**
+	 * Returns the response to the PUT API for applying favourite count updates sent by the Profile
+	 * Microservice. Each update has a unique key and is applied at most once, so the same updates
+	 * can safely be sent again after a failure
+	 *
+	 * @param updates JSON array of updates, e.g.
+	 *                [{"key": "0b9e...", "songId": "5d61728193528481fe5a3124", "delta": 1}]
+	 * @param request provide request information for HTTP servlets
+	 * @return "status":"OK" if request was successfully, with the number of songs updated and
+	 *         skipped
+	 */
+	@RequestMapping(value = "/applySongsFavouritesUpdates", method = RequestMethod.PUT)
+	@ResponseBody
+	public ApiResponse<FavouritesCounts> applySongsFavouritesUpdates(
+			@RequestBody List<Map<String, Object>> updates, HttpServletRequest request) {
+
+		ApiResponse<FavouritesCounts> response = new ApiResponse<>(String.format("PUT %s", Utils.getUrl(request)));
+		DbQueryStatus dbQueryStatus = songDal.applyFavouritesUpdates(updates);
+
+		response.setMessage(dbQueryStatus.getMessage());
+		response = Utils.setResponseStatus(response, dbQueryStatus.getdbQueryExecResult(),
+				(FavouritesCounts) dbQueryStatus.getData());
+		return response;
 	}
 }
\ No newline at end of file
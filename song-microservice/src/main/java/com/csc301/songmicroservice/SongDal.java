@@ -1,14 +1,35 @@
 package com.csc301.songmicroservice;
 
+import java.util.List;
+import java.util.Map;
+
 public interface SongDal {
 
   DbQueryStatus addSong(Song songToAdd);
 
+  DbQueryStatus addSongs(List<Song> songsToAdd);
+
   DbQueryStatus findSongById(String songId);
 
   DbQueryStatus getSongTitleById(String songId);
 
+  DbQueryStatus findSongFieldsById(String songId, List<String> fields);
+
+  DbQueryStatus findSongs(String after, int limit, String songArtistFullName, String songAlbum);
+
+  DbQueryStatus findTopSongs(int limit);
+
+  DbQueryStatus searchSongs(String text, int page, int limit);
+
+  DbQueryStatus findSongsByIds(List<String> songIds);
+
+  DbQueryStatus getSongTitlesByIds(List<String> songIds);
+
   DbQueryStatus deleteSongById(String songId);
 
   DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement);
+
+  DbQueryStatus updateSongsFavouritesCount(Map<String, Long> deltas);
+
+  DbQueryStatus applyFavouritesUpdates(List<Map<String, Object>> updates);
 }
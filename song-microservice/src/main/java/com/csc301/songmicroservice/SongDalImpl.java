@@ -1,30 +1,163 @@
 package com.csc301.songmicroservice;
 
+import com.mongodb.BulkWriteError;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.annotation.Timed;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
 import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition.TextIndexDefinitionBuilder;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 
 /**
- * The Data Access Layer that communicates with the database
+ * The Data Access Layer that communicates with the database. The indexes the queries rely on are
+ * created once every bean is created, before the web server takes requests
  */
 @Repository
-public class SongDalImpl implements SongDal {
+public class SongDalImpl implements SongDal, SmartInitializingSingleton {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SongDalImpl.class);
+
+  /**
+   * The most ids a single batch lookup may ask for, so one request can't pull the whole collection
+   */
+  public static final int MAX_BATCH_IDS = 1000;
+
+  /**
+   * The most songs a single page of the catalog may hold
+   */
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  /**
+   * The most songs a search may page through, since pages past the first are found by skipping
+   */
+  public static final int MAX_SEARCH_RESULTS = 1000;
+
+  /**
+   * One document per favourite update that was applied, with a unique key, so an update that is
+   * sent again isn't applied twice. They expire after appliedUpdatesTtlSeconds
+   */
+  static final String APPLIED_UPDATES_COLLECTION = "appliedFavouritesUpdates";
+
+  private static final String KEY_UPDATE_KEY = "key";
+
+  private static final String KEY_APPLIED_AT = "appliedAt";
+
+  /**
+   * The keys of the favourite updates whose change was written to the song but that aren't in
+   * APPLIED_UPDATES_COLLECTION yet. A key only stays on the song while applyFavouritesUpdates
+   * works on it, or if it stopped part way. Not mapped to Song, it is only ever used in queries
+   */
+  private static final String KEY_PENDING_UPDATES = "pendingFavouritesUpdates";
+
+  /**
+   * The error code of a write that broke a unique index
+   */
+  private static final int DUPLICATE_KEY = 11000;
+
+  /**
+   * Set on a song when it is deleted. The song is hidden from every query from then on, and
+   * removed for good by the SongDeletionSweeper once the Profile Microservice has let go of it
+   */
+  static final String KEY_DELETED = "deleted";
+
+  private static final String KEY_DELETED_AT = "deletedAt";
+
+  /**
+   * How often the Profile Microservice failed to drop a deleted song, and when it is tried next
+   */
+  private static final String KEY_DELETION_ATTEMPTS = "deletionAttempts";
+  private static final String KEY_NEXT_DELETION_ATTEMPT_AT = "nextDeletionAttemptAt";
 
   private final MongoTemplate db;
+  private final FavouritesAggregator favouritesAggregator;
+  private final FavouritesLeaderboard leaderboard;
+  private final long appliedUpdatesTtlSeconds;
 
   /**
    * Constructor fot the Song Data Access Layer
    *
-   * @param mongoTemplate Access to the Mongo Database
+   * @param mongoTemplate            Access to the Mongo Database
+   * @param favouritesAggregator     buffers favourite updates when write-behind is enabled
+   * @param leaderboard              the in-memory chart of the most favourited songs
+   * @param appliedUpdatesTtlSeconds how long the key of an applied favourite update is kept
    */
   @Autowired
-  public SongDalImpl(MongoTemplate mongoTemplate) {
+  public SongDalImpl(MongoTemplate mongoTemplate, FavouritesAggregator favouritesAggregator,
+      FavouritesLeaderboard leaderboard,
+      @Value("${songs.favourites.appliedUpdates.ttlSeconds:604800}") long appliedUpdatesTtlSeconds) {
     this.db = mongoTemplate;
+    this.favouritesAggregator = favouritesAggregator;
+    this.leaderboard = leaderboard;
+    this.appliedUpdatesTtlSeconds = appliedUpdatesTtlSeconds;
+  }
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    initSongDb();
+  }
+
+  /**
+   * Creates the indexes the song queries rely on, if they don't exist yet
+   */
+  public void initSongDb() {
+    IndexOperations indexes = db.indexOps(Song.class);
+    // filtering by artist or album and then paging by _id is a single index range scan
+    indexes.ensureIndex(new Index().on(Song.KEY_SONG_ARTIST_FULL_NAME, Direction.ASC)
+        .on("_id", Direction.ASC));
+    indexes.ensureIndex(new Index().on(Song.KEY_SONG_ALBUM, Direction.ASC)
+        .on("_id", Direction.ASC));
+    // the most favourited songs are the first entries of this index
+    indexes.ensureIndex(new Index().on(Song.KEY_SONG_AMOUNT_FAVOURITES, Direction.DESC)
+        .on("_id", Direction.ASC));
+    // a collection can only have one text index, so leave one that is already there alone
+    boolean hasTextIndex = false;
+    for (IndexInfo index : indexes.getIndexInfo()) {
+      hasTextIndex |= index.isIndexForFields(Collections.singletonList("_fts"));
+    }
+    if (!hasTextIndex) {
+      indexes.ensureIndex(new TextIndexDefinitionBuilder().named("songs_text")
+          .onField(Song.KEY_SONG_NAME, 3F).onField(Song.KEY_SONG_ARTIST_FULL_NAME, 2F)
+          .onField(Song.KEY_SONG_ALBUM).build());
+    }
+    // only deleted songs have the field, so the sweeper finds them without reading the others
+    indexes.ensureIndex(new Index().on(KEY_DELETED, Direction.ASC).sparse());
+
+    IndexOperations appliedUpdates = db.indexOps(APPLIED_UPDATES_COLLECTION);
+    appliedUpdates.ensureIndex(new Index().on(KEY_UPDATE_KEY, Direction.ASC).unique());
+    appliedUpdates.ensureIndex(new Index().on(KEY_APPLIED_AT, Direction.ASC)
+        .expire(appliedUpdatesTtlSeconds, TimeUnit.SECONDS));
   }
 
   /**
@@ -33,30 +166,187 @@ public class SongDalImpl implements SongDal {
    * @param songToAdd the song you want to add to the database
    */
   @Override
+  @Timed("songs.dal")
   public DbQueryStatus addSong(Song songToAdd) {
     // check if song has data
-    if (songToAdd.getSongName().isEmpty() || songToAdd.getSongArtistFullName().isEmpty()
-        || songToAdd.getSongAlbum().isEmpty()) {
+    if (!isValidSong(songToAdd)) {
       return new DbQueryStatus("Empty Song was passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
     }
     // insert into the table
     Song insertedSong = db.insert(songToAdd, "songs");
-    System.out.println("insertedSong: " + insertedSong);
-    if (insertedSong.getJsonRepresentation().isEmpty()) {
+    LOG.debug("inserted song {}", insertedSong);
+    if (insertedSong._id == null) {
       return new DbQueryStatus("Issue while inserting song", DbQueryExecResult.QUERY_ERROR_GENERIC);
     }
+    leaderboard.update(insertedSong);
     DbQueryStatus response = new DbQueryStatus("Song inserted successfully",
         DbQueryExecResult.QUERY_OK);
     response.setData(insertedSong);
     return response;
   }
 
+  /**
+   * Adds the songs to the database with one unordered bulk insert. Songs that fail the same checks
+   * as addSong are skipped, and a song that can't be inserted doesn't stop the others
+   *
+   * @param songsToAdd the songs you want to add to the database
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus addSongs(List<Song> songsToAdd) {
+    List<SongInsertError> errors = new ArrayList<>();
+    // positions in songsToAdd of the songs that are sent to the database
+    List<Integer> positions = new ArrayList<>();
+    List<Song> validSongs = new ArrayList<>();
+    for (int i = 0; i < songsToAdd.size(); i++) {
+      if (isValidSong(songsToAdd.get(i))) {
+        positions.add(i);
+        validSongs.add(songsToAdd.get(i));
+      } else {
+        errors.add(new SongInsertError((long) i, "Empty Song was passed in"));
+      }
+    }
+    int inserted = 0;
+    if (!validSongs.isEmpty()) {
+      // too many songs at once to put on the leaderboard one by one
+      leaderboard.invalidate();
+      try {
+        inserted = db.bulkOps(BulkMode.UNORDERED, Song.class).insert(validSongs).execute()
+            .getInsertedCount();
+      } catch (BulkOperationException e) {
+        inserted = e.getResult().getInsertedCount();
+        for (BulkWriteError error : e.getErrors()) {
+          errors.add(new SongInsertError((long) positions.get(error.getIndex()),
+              error.getMessage()));
+        }
+      }
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(new SongInsertBatch(inserted, songsToAdd.size() - inserted, errors));
+    return response;
+  }
+
+  /**
+   * Returns one page of the songs in the database, ordered by id. Each page continues right after
+   * the id of the last song on the previous page, so every page costs the same to read no matter
+   * how far into the catalog it is
+   *
+   * @param after              Optional, the id of the last song on the previous page
+   * @param limit              the most songs to return
+   * @param songArtistFullName Optional, only return songs by this artist
+   * @param songAlbum          Optional, only return songs on this album
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus findSongs(String after, int limit, String songArtistFullName,
+      String songAlbum) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      return new DbQueryStatus("Invalid limit is passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    Query query = new Query(notDeleted());
+    if (after != null && !after.isEmpty()) {
+      if (!ObjectId.isValid(after)) {
+        return new DbQueryStatus("Invalid ObjectId", DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+      query.addCriteria(Criteria.where("_id").gt(new ObjectId(after)));
+    }
+    if (songArtistFullName != null && !songArtistFullName.isEmpty()) {
+      query.addCriteria(Criteria.where(Song.KEY_SONG_ARTIST_FULL_NAME).is(songArtistFullName));
+    }
+    if (songAlbum != null && !songAlbum.isEmpty()) {
+      query.addCriteria(Criteria.where(Song.KEY_SONG_ALBUM).is(songAlbum));
+    }
+    // read one extra song to know if there is another page
+    query.with(Sort.by(Direction.ASC, "_id")).limit(limit + 1);
+    List<Song> songs = db.find(query, Song.class);
+
+    String next = null;
+    if (songs.size() > limit) {
+      songs = songs.subList(0, limit);
+      next = songs.get(limit - 1).getId();
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(new SongPage(songs, next));
+    return response;
+  }
+
+  /**
+   * Returns the most favourited songs, highest count first. They are read from the leaderboard
+   * when it is enabled and the limit fits on it, otherwise from the songAmountFavourites index
+   *
+   * @param limit how many songs to return
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus findTopSongs(int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      return new DbQueryStatus("Invalid limit is passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    List<Song> songs;
+    if (leaderboard.isEnabled() && limit <= leaderboard.getSize()) {
+      songs = leaderboard.getTop(limit);
+      if (songs == null) {
+        long version = leaderboard.beginLoad();
+        List<Song> top = queryTopSongs(leaderboard.getSize());
+        leaderboard.load(top, version);
+        songs = leaderboard.getTop(limit);
+        if (songs == null) {
+          // changed again while loading, what was just read is still the best answer
+          songs = top.subList(0, Math.min(limit, top.size()));
+        }
+      }
+    } else {
+      songs = queryTopSongs(limit);
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(songs);
+    return response;
+  }
+
+  private List<Song> queryTopSongs(int limit) {
+    Query query = new Query(notDeleted());
+    query.with(Sort.by(Direction.DESC, Song.KEY_SONG_AMOUNT_FAVOURITES).and(Sort.by("_id")))
+        .limit(limit);
+    return db.find(query, Song.class);
+  }
+
+  /**
+   * Searches the names, artists and albums of the songs for the given words. Best matches come
+   * first, and a word in the song name counts for more than one in the artist or album
+   *
+   * @param text  the words to search for
+   * @param page  which page of results to return, starting at 0
+   * @param limit the most songs on a page
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus searchSongs(String text, int page, int limit) {
+    if (text == null || text.trim().isEmpty()) {
+      return new DbQueryStatus("Empty search is passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    if (limit < 1 || page < 0 || ((long) page + 1) * limit > MAX_SEARCH_RESULTS) {
+      return new DbQueryStatus("Invalid page or limit is passed in",
+          DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    long start = System.nanoTime();
+    Query query = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(text))
+        .sortByScore().skip((long) page * limit).limit(limit);
+    query.addCriteria(notDeleted());
+    List<Song> songs = db.find(query, Song.class);
+
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(new SongSearchResults(songs, page,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    return response;
+  }
+
   /**
    * Retrieves the song from the database
    *
    * @param songId the song you want to retrieve from the database
    */
   @Override
+  @Timed("songs.dal")
   public DbQueryStatus findSongById(String songId) {
     // check if song id is empty
     if (songId.isEmpty()) {
@@ -66,20 +356,18 @@ public class SongDalImpl implements SongDal {
     try {
       _id = new ObjectId(songId);
     } catch (Exception e) {
-      System.out.println("invalid object id");
+      LOG.debug("invalid song id {}", songId);
       return new DbQueryStatus("Invalid ObjectId", DbQueryExecResult.QUERY_ERROR_GENERIC);
     }
-    Query query = new Query();
+    Query query = new Query(notDeleted());
     query.addCriteria(Criteria.where("_id").is(_id));
     List<Song> songs = db.find(query, Song.class);
-    System.out.println(songs.toString());
     // if there is no data from the database => 404
     if (songs.isEmpty()) {
-      System.out.println("songs is empty");
+      LOG.debug("song {} not found", songId);
       return new DbQueryStatus("NOT FOUND", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
     }
     // there is data => 200 and set the data in the response
-    System.out.println("success!");
     DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
     response.setData(songs);
     return response;
@@ -91,6 +379,7 @@ public class SongDalImpl implements SongDal {
    * @param songId the song title you want to retrieve from the database
    */
   @Override
+  @Timed("songs.dal")
   public DbQueryStatus getSongTitleById(String songId) {
     // check if song id is empty
     if (songId.isEmpty()) {
@@ -101,31 +390,139 @@ public class SongDalImpl implements SongDal {
       _id = new ObjectId(songId);
     } catch (Exception e) {
       // ObjId was invalid => 500
-      System.out.println("invalid object id");
+      LOG.debug("invalid song id {}", songId);
       return new DbQueryStatus("Invalid ObjectId", DbQueryExecResult.QUERY_ERROR_GENERIC);
     }
-    Query query = new Query();
+    Query query = new Query(notDeleted());
     query.addCriteria(Criteria.where("_id").is(_id));
-    List<Song> songs = db.find(query, Song.class);
+    // only the title is needed, so don't pull the rest of the document over the wire
+    query.fields().include(Song.KEY_SONG_NAME);
+    Song song = db.findOne(query, Song.class);
     // if there is no data from the database => 404
-    if (songs.isEmpty()) {
-      System.out.println("songs are empty");
+    if (song == null) {
+      LOG.debug("song {} not found", songId);
       return new DbQueryStatus("NOT FOUND", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
     }
     // there is data => 200 and set the data in the response
-    System.out.println("song name:" + songs.get(0).getSongName());
-    System.out.println("success! ");
     DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
-    response.setData(songs.get(0).getSongName());
+    response.setData(song.getSongName());
     return response;
   }
 
   /**
-   * Deletes the song from the database
+   * Retrieves only the given fields of the song from the database
+   *
+   * @param songId the song you want to retrieve from the database
+   * @param fields the fields of the song you want, out of Song.FIELDS. The id is always included
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus findSongFieldsById(String songId, List<String> fields) {
+    // check if song id is empty
+    if (songId.isEmpty()) {
+      return new DbQueryStatus("Empty id is passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    if (!Song.FIELDS.containsAll(fields)) {
+      return new DbQueryStatus("Invalid field is passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    ObjectId _id = null;
+    try {
+      _id = new ObjectId(songId);
+    } catch (Exception e) {
+      // ObjId was invalid => 500
+      LOG.debug("invalid song id {}", songId);
+      return new DbQueryStatus("Invalid ObjectId", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    Query query = new Query(notDeleted());
+    query.addCriteria(Criteria.where("_id").is(_id));
+    for (String field : fields) {
+      query.fields().include(field);
+    }
+    Song song = db.findOne(query, Song.class);
+    // if there is no data from the database => 404
+    if (song == null) {
+      return new DbQueryStatus("NOT FOUND", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(Collections.singletonList(SongFields.of(song, fields)));
+    return response;
+  }
+
+  /**
+   * Retrieves all the songs with the given ids from the database in one query. Ids that are
+   * invalid or not in the database are left out of the result
+   *
+   * @param songIds the songs you want to retrieve from the database
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus findSongsByIds(List<String> songIds) {
+    Set<ObjectId> _ids = toObjectIds(songIds);
+    if (_ids == null) {
+      return new DbQueryStatus("Too many ids are passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    List<Song> songs = new ArrayList<>();
+    if (!_ids.isEmpty()) {
+      Query query = new Query(notDeleted());
+      query.addCriteria(Criteria.where("_id").in(_ids));
+      // index the results so they come back in the order they were asked for
+      Map<ObjectId, Song> found = new HashMap<>();
+      for (Song song : db.find(query, Song.class)) {
+        found.put(song._id, song);
+      }
+      for (ObjectId _id : _ids) {
+        if (found.containsKey(_id)) {
+          songs.add(found.get(_id));
+        }
+      }
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(songs);
+    return response;
+  }
+
+  /**
+   * Retrieves the titles of all the songs with the given ids from the database in one query. Ids
+   * that are invalid or not in the database are left out of the result
+   *
+   * @param songIds the song titles you want to retrieve from the database
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus getSongTitlesByIds(List<String> songIds) {
+    Set<ObjectId> _ids = toObjectIds(songIds);
+    if (_ids == null) {
+      return new DbQueryStatus("Too many ids are passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    Map<String, String> titles = new LinkedHashMap<>();
+    if (!_ids.isEmpty()) {
+      Query query = new Query(notDeleted());
+      query.addCriteria(Criteria.where("_id").in(_ids));
+      // only the title is needed, so don't pull the rest of the document over the wire
+      query.fields().include(Song.KEY_SONG_NAME);
+      Map<ObjectId, String> found = new HashMap<>();
+      for (Song song : db.find(query, Song.class)) {
+        found.put(song._id, song.getSongName());
+      }
+      for (ObjectId _id : _ids) {
+        if (found.containsKey(_id)) {
+          titles.put(_id.toHexString(), found.get(_id));
+        }
+      }
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    response.setData(titles);
+    return response;
+  }
+
+  /**
+   * Marks the song as deleted. It is hidden from every query straight away, and removed from the
+   * database by the SongDeletionSweeper once it is gone from the profiles' playlists
    *
    * @param songId the song you want to delete from the database
    */
   @Override
+  @Timed("songs.dal")
   public DbQueryStatus deleteSongById(String songId) {
     // check if song id is empty
     if (songId.isEmpty()) {
@@ -136,22 +533,82 @@ public class SongDalImpl implements SongDal {
       _id = new ObjectId(songId);
     } catch (Exception e) {
       // ObjId was invalid => 500
-      System.out.println("invalid object id");
+      LOG.debug("invalid song id {}", songId);
       return new DbQueryStatus("Invalid ObjectId", DbQueryExecResult.QUERY_ERROR_GENERIC);
     }
-    Query query = new Query();
+    Query query = new Query(notDeleted());
     query.addCriteria(Criteria.where("_id").is(_id));
-    // delete code here
-    DeleteResult res = db.remove(query, Song.class);
-    if (res.getDeletedCount() != 1) {
-      System.out.println("could not delete");
+    Update update = new Update().set(KEY_DELETED, true).currentDate(KEY_DELETED_AT);
+    UpdateResult res = db.updateFirst(query, update, Song.class);
+    if (res.getMatchedCount() != 1) {
+      LOG.debug("song {} not found", songId);
       return new DbQueryStatus("NOT FOUND", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
     }
-    System.out.println("success!");
+    leaderboard.remove(_id);
     DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
     return response;
   }
 
+  /**
+   * Returns the ids of the songs that were deleted but are still in the database, oldest first.
+   * Songs that are backing off after a failed attempt are left out until their next attempt is due
+   *
+   * @param limit the most ids to return
+   */
+  @Timed("songs.dal")
+  public List<String> findDeletedSongIds(int limit) {
+    Query query = new Query(Criteria.where(KEY_DELETED).is(true).orOperator(
+        Criteria.where(KEY_NEXT_DELETION_ATTEMPT_AT).exists(false),
+        Criteria.where(KEY_NEXT_DELETION_ATTEMPT_AT).lte(new Date())));
+    query.fields().include("_id");
+    query.with(Sort.by(Direction.ASC, KEY_DELETED_AT)).limit(limit);
+    List<String> songIds = new ArrayList<>();
+    for (Document document : db.find(query, Document.class, "songs")) {
+      songIds.add(document.getObjectId("_id").toHexString());
+    }
+    return songIds;
+  }
+
+  /**
+   * Puts off the next attempt to finish deleting a song, doubling the wait with every failed
+   * attempt up to maxBackoffMs
+   *
+   * @param songId       the deleted song
+   * @param backoffMs    the wait after the first failed attempt
+   * @param maxBackoffMs the longest wait
+   * @return how long the song waits, or -1 if it is gone
+   */
+  @Timed("songs.dal")
+  public long postponeDeletedSong(String songId, long backoffMs, long maxBackoffMs) {
+    Query query = new Query(Criteria.where(KEY_DELETED).is(true));
+    query.addCriteria(Criteria.where("_id").is(new ObjectId(songId)));
+    query.fields().include(KEY_DELETION_ATTEMPTS);
+    Document song = db.findAndModify(query, new Update().inc(KEY_DELETION_ATTEMPTS, 1),
+        FindAndModifyOptions.options().returnNew(true), Document.class, "songs");
+    if (song == null) {
+      return -1;
+    }
+    int attempts = song.getInteger(KEY_DELETION_ATTEMPTS);
+    long delayMs = Math.min(maxBackoffMs, backoffMs << Math.min(attempts - 1, 30));
+    db.updateFirst(query, new Update().set(KEY_NEXT_DELETION_ATTEMPT_AT,
+        new Date(System.currentTimeMillis() + delayMs)), "songs");
+    return delayMs;
+  }
+
+  /**
+   * Removes a song that was marked as deleted from the database for good
+   *
+   * @param songId the deleted song
+   * @return true if the song was removed
+   */
+  @Timed("songs.dal")
+  public boolean purgeDeletedSong(String songId) {
+    Query query = new Query(Criteria.where(KEY_DELETED).is(true));
+    query.addCriteria(Criteria.where("_id").is(new ObjectId(songId)));
+    DeleteResult res = db.remove(query, Song.class);
+    return res.getDeletedCount() == 1;
+  }
+
   /**
    * Updates the song favourite count in the database
    *
@@ -160,6 +617,7 @@ public class SongDalImpl implements SongDal {
    *                        false
    */
   @Override
+  @Timed("songs.dal")
   public DbQueryStatus updateSongFavouritesCount(String songId, boolean shouldDecrement) {
     // check if song id is empty
     if (songId.isEmpty()) {
@@ -171,42 +629,322 @@ public class SongDalImpl implements SongDal {
       _id = new ObjectId(songId);
     } catch (Exception e) {
       // ObjId was invalid => 500
-      System.out.println("invalid object id");
+      LOG.debug("invalid song id {}", songId);
       return new DbQueryStatus("Invalid ObjectId", DbQueryExecResult.QUERY_ERROR_GENERIC);
     }
-    // find the song obj corresponding to the id
-    Query query = new Query();
-    query.addCriteria(Criteria.where("_id").is(_id));
-    Song song = db.findOne(query, Song.class);
-    // if there is no data from the database => 404
-    if (song == null) {
-      System.out.println("song is empty");
-      return new DbQueryStatus("Song not found", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
-    }
-    // if shouldDecrement is true and songAmountFavourites is > 0 => decrease
-    long favourites = song.getSongAmountFavourites();
-    if (shouldDecrement && favourites > 0) {
-      song.setSongAmountFavourites(favourites - 1);
+    // with write-behind on, the update is only written on the next flush, so a missing song or a
+    // count that would go < 0 can't be reported back here
+    if (favouritesAggregator.isEnabled()) {
+      favouritesAggregator.record(_id, shouldDecrement ? -1 : 1);
+      return new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
     }
-    // if shouldDecrement is false => increase
-    else if (shouldDecrement == false) {
-      song.setSongAmountFavourites(favourites + 1);
+    // update the count on the server in one step, so concurrent likes can't overwrite each other
+    Query query = new Query(notDeleted());
+    query.addCriteria(Criteria.where("_id").is(_id));
+    // only decrease songAmountFavourites if it is > 0
+    if (shouldDecrement) {
+      query.addCriteria(Criteria.where(Song.KEY_SONG_AMOUNT_FAVOURITES).gt(0));
     }
-    // otherwise there was an issue with favourites
-    else {
-      System.out.println("could not update fave num because < 0");
+    Update update = new Update().inc(Song.KEY_SONG_AMOUNT_FAVOURITES, shouldDecrement ? -1 : 1)
+        .inc(Song.KEY_FAVOURITES_VERSION, 1);
+    Song updatedSong = db.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+        Song.class);
+    if (updatedSong == null) {
+      // nothing matched, so either the song isn't there or its count is already 0
+      Query songQuery = new Query(notDeleted());
+      songQuery.addCriteria(Criteria.where("_id").is(_id));
+      if (!db.exists(songQuery, Song.class)) {
+        LOG.debug("song {} not found", songId);
+        return new DbQueryStatus("Song not found", DbQueryExecResult.QUERY_ERROR_NOT_FOUND);
+      }
+      LOG.debug("song {} already has no favourites", songId);
       return new DbQueryStatus("Cannot unlike a song that you did not like",
           DbQueryExecResult.QUERY_ERROR_GENERIC);
     }
-    // update the database with the new like value
-    Song updatedSong = db.save(song, "songs");
-    if (updatedSong.getSongAmountFavourites() == favourites || updatedSong.getJsonRepresentation()
-        .isEmpty()) {
-      System.out.println("could not update the fav num");
-      return new DbQueryStatus("Issue while updating the favourite number",
-          DbQueryExecResult.QUERY_ERROR_GENERIC);
-    }
-    System.out.println("success!");
+    leaderboard.update(updatedSong);
     return new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
   }
+
+  /**
+   * Changes the favourite counts of many songs at once, in one unordered bulk write. Like
+   * updateSongFavouritesCount, a count is never decreased below 0
+   *
+   * @param deltas how much to change the count of each song by, e.g. 1 for a like
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus updateSongsFavouritesCount(Map<String, Long> deltas) {
+    if (deltas == null || deltas.size() > MAX_BATCH_IDS) {
+      return new DbQueryStatus("Too many ids are passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    Map<ObjectId, Long> changes = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+      if (ObjectId.isValid(entry.getKey()) && entry.getValue() != null && entry.getValue() != 0) {
+        changes.put(new ObjectId(entry.getKey()), entry.getValue());
+      }
+    }
+    int updated = 0;
+    if (favouritesAggregator.isEnabled()) {
+      // buffered like single updates, so songs that are missing can't be reported back here
+      for (Map.Entry<ObjectId, Long> change : changes.entrySet()) {
+        favouritesAggregator.record(change.getKey(), change.getValue());
+      }
+      updated = changes.size();
+    } else if (!changes.isEmpty()) {
+      List<ObjectId> order = new ArrayList<>(changes.size());
+      Set<ObjectId> written = new HashSet<>(changes.keySet());
+      try {
+        updated = FavouritesAggregator.incrementAll(db, changes, order).execute()
+            .getMatchedCount();
+      } catch (BulkOperationException e) {
+        updated = e.getResult().getMatchedCount();
+        LOG.warn("could not update {} favourite counts", e.getErrors().size());
+        // the rest of the unordered write went through
+        for (BulkWriteError error : e.getErrors()) {
+          written.remove(order.get(error.getIndex()));
+        }
+      } catch (RuntimeException e) {
+        // can't tell which of the counts were written
+        leaderboard.invalidate();
+        throw e;
+      }
+      FavouritesAggregator.updateLeaderboard(db, leaderboard, written);
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    // skipped are missing songs, invalid ids and counts that would go < 0
+    response.setData(FavouritesCounts.updated(updated, deltas.size() - updated));
+    return response;
+  }
+
+  /**
+   * Applies favourite count updates that each have a unique key, at most once per key. Every key
+   * is its own conditional $inc, applied in the order sent, so a key that was applied before
+   * doesn't hold back the other keys for the same song. Like updateSongFavouritesCount, a count is
+   * never decreased below 0; those keys are returned as rejectedKeys, since the like they undo may
+   * still be on its way.
+   * <p>
+   * The key is pushed onto the song with its $inc, and only taken off once it is in
+   * APPLIED_UPDATES_COLLECTION, so sending the same updates again changes nothing even if the
+   * last call stopped part way. Two calls with the same keys at once could still both apply a key,
+   * if one of them finishes it between the other looking it up and writing it; the Profile
+   * Microservice sends one batch at a time
+   *
+   * @param updates the updates, each with a "key", a "songId" and a "delta"
+   */
+  @Override
+  @Timed("songs.dal")
+  public DbQueryStatus applyFavouritesUpdates(List<Map<String, Object>> updates) {
+    if (updates == null || updates.size() > MAX_BATCH_IDS) {
+      return new DbQueryStatus("Too many ids are passed in", DbQueryExecResult.QUERY_ERROR_GENERIC);
+    }
+    // the song and delta of each valid update, in the order sent
+    Map<String, ObjectId> songIds = new LinkedHashMap<>();
+    Map<String, Long> changes = new HashMap<>();
+    for (Map<String, Object> update : updates) {
+      Object songId = update.get("songId");
+      Object key = update.get("key");
+      Object delta = update.get("delta");
+      if (songId == null || !ObjectId.isValid(songId.toString()) || key == null
+          || !(delta instanceof Number)
+          || songIds.putIfAbsent(key.toString(), new ObjectId(songId.toString())) != null) {
+        continue;
+      }
+      changes.put(key.toString(), ((Number) delta).longValue());
+    }
+    int applied = 0;
+    List<String> rejectedKeys = new ArrayList<>();
+    if (!songIds.isEmpty()) {
+      // applied straight away even with write-behind on, since the keys have to be written with
+      // the count
+      try {
+        applied = applyOnce(songIds, changes, rejectedKeys);
+      } catch (RuntimeException e) {
+        // let the caller send them all again, the keys keep the ones that were applied from
+        // being applied twice. The board can't tell if the last one was, so it has to be loaded
+        // again
+        leaderboard.invalidate();
+        LOG.warn("could not apply favourite updates: {}", e.getMessage());
+        return new DbQueryStatus("Issue while updating the favourite counts",
+            DbQueryExecResult.QUERY_ERROR_GENERIC);
+      }
+    }
+    DbQueryStatus response = new DbQueryStatus("OK", DbQueryExecResult.QUERY_OK);
+    // skipped are invalid updates, missing songs, keys that were already applied and counts that
+    // would go < 0
+    response.setData(FavouritesCounts.applied(applied, updates.size() - applied, rejectedKeys));
+    return response;
+  }
+
+  /**
+   * Writes the updates whose keys weren't applied before, see applyFavouritesUpdates
+   *
+   * @param songIds      the song of each key, in the order sent
+   * @param changes      the delta of each key
+   * @param rejectedKeys filled with the keys that would have taken a count below 0
+   * @return how many updates were applied by this call
+   */
+  private int applyOnce(Map<String, ObjectId> songIds, Map<String, Long> changes,
+      List<String> rejectedKeys) {
+    Query appliedQuery = new Query(Criteria.where(KEY_UPDATE_KEY).in(songIds.keySet()));
+    appliedQuery.fields().include(KEY_UPDATE_KEY);
+    Set<String> appliedBefore = new HashSet<>();
+    for (Document document : db.find(appliedQuery, Document.class, APPLIED_UPDATES_COLLECTION)) {
+      appliedBefore.add(document.getString(KEY_UPDATE_KEY));
+    }
+
+    int applied = 0;
+    List<String> written = new ArrayList<>();
+    Map<String, ObjectId> notWritten = new LinkedHashMap<>();
+    for (Map.Entry<String, ObjectId> entry : songIds.entrySet()) {
+      String key = entry.getKey();
+      if (appliedBefore.contains(key)) {
+        continue;
+      }
+      long change = changes.get(key);
+      Query query = new Query(notDeleted());
+      query.addCriteria(Criteria.where("_id").is(entry.getValue()));
+      query.addCriteria(Criteria.where(KEY_PENDING_UPDATES).ne(key));
+      if (change < 0) {
+        query.addCriteria(Criteria.where(Song.KEY_SONG_AMOUNT_FAVOURITES).gte(-change));
+      }
+      Update update = new Update().inc(Song.KEY_SONG_AMOUNT_FAVOURITES, change)
+          .inc(Song.KEY_FAVOURITES_VERSION, 1).push(KEY_PENDING_UPDATES, key);
+      Song song = db.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+          Song.class);
+      if (song != null) {
+        applied++;
+        written.add(key);
+        leaderboard.update(song);
+      } else {
+        notWritten.put(key, entry.getValue());
+      }
+    }
+    rejectedKeys.addAll(findRejectedKeys(notWritten, written));
+    markApplied(written, songIds);
+    // a key can also be left on its song by a call that stopped after marking it applied
+    List<String> settled = new ArrayList<>(written);
+    settled.addAll(appliedBefore);
+    takeOffSongs(settled, songIds);
+    return applied;
+  }
+
+  /**
+   * Works out why the updates weren't written, reading only the pending keys of their songs.
+   * Keys of songs that are missing or deleted aren't returned, since they can never be applied
+   *
+   * @param notWritten the song of each key that wasn't written
+   * @param written    filled with the keys that are still pending on their song, which were
+   *                   written by an earlier call that stopped before marking them applied
+   * @return the keys that would have taken the count of their song below 0
+   */
+  private List<String> findRejectedKeys(Map<String, ObjectId> notWritten, List<String> written) {
+    List<String> rejectedKeys = new ArrayList<>();
+    if (notWritten.isEmpty()) {
+      return rejectedKeys;
+    }
+    Query query = new Query(notDeleted());
+    query.addCriteria(Criteria.where("_id").in(new HashSet<>(notWritten.values())));
+    query.fields().include(KEY_PENDING_UPDATES);
+    Map<ObjectId, Set<String>> pendingKeys = new HashMap<>();
+    for (Document document : db.find(query, Document.class, "songs")) {
+      Object keys = document.get(KEY_PENDING_UPDATES);
+      pendingKeys.put(document.getObjectId("_id"),
+          keys instanceof List ? new HashSet<>((List<String>) keys) : Collections.emptySet());
+    }
+    for (Map.Entry<String, ObjectId> entry : notWritten.entrySet()) {
+      Set<String> keys = pendingKeys.get(entry.getValue());
+      if (keys == null) {
+        continue;
+      }
+      if (keys.contains(entry.getKey())) {
+        written.add(entry.getKey());
+      } else {
+        rejectedKeys.add(entry.getKey());
+      }
+    }
+    return rejectedKeys;
+  }
+
+  /**
+   * Adds the keys to APPLIED_UPDATES_COLLECTION. Keys that are already there are left alone
+   */
+  private void markApplied(List<String> keys, Map<String, ObjectId> songIds) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    Date appliedAt = new Date();
+    List<Document> documents = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      documents.add(new Document(KEY_UPDATE_KEY, key).append("songId", songIds.get(key))
+          .append(KEY_APPLIED_AT, appliedAt));
+    }
+    try {
+      db.bulkOps(BulkMode.UNORDERED, APPLIED_UPDATES_COLLECTION).insert(documents).execute();
+    } catch (BulkOperationException e) {
+      for (BulkWriteError error : e.getErrors()) {
+        if (error.getCode() != DUPLICATE_KEY) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes the keys, which are all in APPLIED_UPDATES_COLLECTION, off the songs they are pending on
+   */
+  private void takeOffSongs(List<String> keys, Map<String, ObjectId> songIds) {
+    Map<ObjectId, List<String>> keysBySong = new LinkedHashMap<>();
+    for (String key : keys) {
+      keysBySong.computeIfAbsent(songIds.get(key), _id -> new ArrayList<>()).add(key);
+    }
+    if (keysBySong.isEmpty()) {
+      return;
+    }
+    BulkOperations bulk = db.bulkOps(BulkMode.UNORDERED, Song.class);
+    for (Map.Entry<ObjectId, List<String>> entry : keysBySong.entrySet()) {
+      Query query = new Query(Criteria.where("_id").is(entry.getKey()));
+      query.addCriteria(Criteria.where(KEY_PENDING_UPDATES).in(entry.getValue()));
+      bulk.updateOne(query,
+          new Update().pullAll(KEY_PENDING_UPDATES, entry.getValue().toArray()));
+    }
+    bulk.execute();
+  }
+
+  /**
+   * Matches the songs that haven't been deleted
+   */
+  static Criteria notDeleted() {
+    return Criteria.where(KEY_DELETED).ne(true);
+  }
+
+  /**
+   * Returns true if the song has a name, artist and album
+   *
+   * @param song the song to check
+   */
+  private static boolean isValidSong(Song song) {
+    return song != null && song.getSongName() != null && !song.getSongName().isEmpty()
+        && song.getSongArtistFullName() != null && !song.getSongArtistFullName().isEmpty()
+        && song.getSongAlbum() != null && !song.getSongAlbum().isEmpty();
+  }
+
+  /**
+   * Converts the song ids to ObjectIds, dropping the ones that are empty or invalid and keeping
+   * the order they were given in
+   *
+   * @param songIds the song ids to convert
+   * @return the distinct ObjectIds, or null if there are more than MAX_BATCH_IDS of them
+   */
+  private static Set<ObjectId> toObjectIds(List<String> songIds) {
+    Set<ObjectId> _ids = new LinkedHashSet<>();
+    if (songIds == null) {
+      return _ids;
+    }
+    for (String songId : songIds) {
+      if (songId != null && ObjectId.isValid(songId)) {
+        _ids.add(new ObjectId(songId));
+      }
+    }
+    return _ids.size() > MAX_BATCH_IDS ? null : _ids;
+  }
 }
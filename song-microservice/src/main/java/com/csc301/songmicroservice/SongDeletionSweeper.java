@@ -0,0 +1,171 @@
+package com.csc301.songmicroservice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Finishes deleting the songs that deleteSongById marked as deleted. For each one, oldest first,
+ * the Profile Microservice is told to drop the song, and once it has the song is removed from the
+ * database. The mark stays on a song until then, so songs that were deleted before a restart or
+ * while the Profile Microservice was down are picked up on the next sweep. A song the Profile
+ * Microservice doesn't drop backs off on its own, with the wait doubling on every failed attempt,
+ * and the sweep carries on with the rest.
+ */
+@Component
+public class SongDeletionSweeper {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SongDeletionSweeper.class);
+
+  // only the status of the Profile Microservice's answer is read
+  private static final ParameterizedTypeReference<ApiResponse<Object>> RESPONSE_TYPE =
+      new ParameterizedTypeReference<ApiResponse<Object>>() {
+      };
+
+  private final SongDalImpl songDal;
+  private final RestTemplate restTemplate;
+  private final String profileServiceUrl;
+  private final long sweepIntervalMs;
+  private final int batchSize;
+  private final long retryBackoffMs;
+  private final long maxRetryBackoffMs;
+  private final Counter purged;
+  private final Counter postponed;
+
+  private final AtomicBoolean sweepRequested = new AtomicBoolean(false);
+  private ScheduledExecutorService sweeper;
+
+  /**
+   * Constructor for the song deletion sweeper
+   *
+   * @param songDal           where the deleted songs are found and removed
+   * @param restTemplate      the client for calls to the Profile Microservice
+   * @param registry          where the purged count is registered
+   * @param profileServiceUrl where the Profile Microservice is running
+   * @param sweepIntervalMs   how often to look for deleted songs
+   * @param batchSize         how many deleted songs to read at once
+   * @param retryBackoffMs    how long a song waits after its first failed attempt
+   * @param maxRetryBackoffMs the longest a song waits between attempts
+   */
+  @Autowired
+  public SongDeletionSweeper(SongDalImpl songDal, RestTemplate restTemplate,
+      MeterRegistry registry,
+      @Value("${interservice.profileService.url}") String profileServiceUrl,
+      @Value("${songs.deletion.sweepIntervalMs:5000}") long sweepIntervalMs,
+      @Value("${songs.deletion.batchSize:100}") int batchSize,
+      @Value("${songs.deletion.retryBackoffMs:5000}") long retryBackoffMs,
+      @Value("${songs.deletion.maxRetryBackoffMs:300000}") long maxRetryBackoffMs) {
+    this.songDal = songDal;
+    this.restTemplate = restTemplate;
+    this.profileServiceUrl = profileServiceUrl;
+    this.sweepIntervalMs = sweepIntervalMs;
+    this.batchSize = Math.max(1, batchSize);
+    this.retryBackoffMs = Math.max(1, retryBackoffMs);
+    this.maxRetryBackoffMs = Math.max(this.retryBackoffMs, maxRetryBackoffMs);
+    this.purged = Counter.builder("songs.deletion.purged")
+        .description("Deleted songs removed from the database for good").register(registry);
+    this.postponed = Counter.builder("songs.deletion.postponed")
+        .description("Attempts to finish deleting a song that failed and were put off")
+        .register(registry);
+  }
+
+  @PostConstruct
+  public void start() {
+    sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "song-deletion-sweeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sweeper.scheduleWithFixedDelay(this::sweepQuietly, sweepIntervalMs, sweepIntervalMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+  }
+
+  /**
+   * Sweeps right away instead of on the next interval, e.g. after a song was deleted
+   */
+  public void sweepSoon() {
+    // one extra sweep covers every deletion until it starts
+    if (sweeper != null && sweepRequested.compareAndSet(false, true)) {
+      sweeper.execute(this::sweepQuietly);
+    }
+  }
+
+  private void sweepQuietly() {
+    sweepRequested.set(false);
+    try {
+      sweep();
+    } catch (RuntimeException e) {
+      LOG.warn("could not sweep deleted songs, retrying in {}ms: {}", sweepIntervalMs,
+          e.getMessage());
+    }
+  }
+
+  /**
+   * Finishes deleting batches of deleted songs until none are left that are due. A song the
+   * Profile Microservice doesn't drop is put off, which also keeps it out of the next batches
+   */
+  private void sweep() {
+    List<String> songIds;
+    do {
+      songIds = songDal.findDeletedSongIds(batchSize);
+      for (String songId : songIds) {
+        String failure;
+        try {
+          failure = callDeleteAllSongsFromDB(songId) ? null : "the song was not dropped";
+        } catch (RestClientException e) {
+          failure = e.getMessage();
+        }
+        if (failure != null) {
+          long delayMs = songDal.postponeDeletedSong(songId, retryBackoffMs, maxRetryBackoffMs);
+          postponed.increment();
+          LOG.warn("could not delete song {} from the profiles, retrying in {}ms: {}", songId,
+              delayMs, failure);
+        } else if (songDal.purgeDeletedSong(songId)) {
+          purged.increment();
+        }
+      }
+    } while (songIds.size() == batchSize);
+  }
+
+  /**
+   * Returns true if songId was successfully deleted from the profile database. Otherwise, returns
+   * false
+   *
+   * @param songId The id for the song you want to delete
+   * @return boolean if the song was successfully deleted
+   */
+  private boolean callDeleteAllSongsFromDB(String songId) throws RestClientException {
+    final String uri = profileServiceUrl + "/deleteAllSongsFromDb/{songId}";
+    // add pathVariables
+    Map<String, String> uriVariables = new HashMap<>();
+    uriVariables.put("songId", songId);
+    ResponseEntity<ApiResponse<Object>> result = restTemplate
+        .exchange(uri, HttpMethod.PUT, null, RESPONSE_TYPE, uriVariables);
+    return result.getBody().isOk();
+  }
+}
@@ -0,0 +1,70 @@
+package com.csc301.songmicroservice;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+
+/**
+ * Only some fields of a song, as getSongById returns them when it is given fields, e.g.
+ * { "songName" : "...", "id" : "5d61728193528481fe5a3124" }. The fields that weren't asked for are
+ * left out
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SongFields {
+
+  private String songName;
+  private String songArtistFullName;
+  private String songAlbum;
+  private Long songAmountFavourites;
+  private final String id;
+
+  private SongFields(String id) {
+    this.id = id;
+  }
+
+  /**
+   * Copies the given fields of the song
+   *
+   * @param song   the song, which may only have the given fields read
+   * @param fields the fields to copy, out of Song.FIELDS
+   */
+  public static SongFields of(Song song, List<String> fields) {
+    SongFields songFields = new SongFields(song.getId());
+    for (String field : fields) {
+      switch (field) {
+        case Song.KEY_SONG_NAME:
+          songFields.songName = song.getSongName();
+          break;
+        case Song.KEY_SONG_ARTIST_FULL_NAME:
+          songFields.songArtistFullName = song.getSongArtistFullName();
+          break;
+        case Song.KEY_SONG_ALBUM:
+          songFields.songAlbum = song.getSongAlbum();
+          break;
+        case Song.KEY_SONG_AMOUNT_FAVOURITES:
+          songFields.songAmountFavourites = song.getSongAmountFavourites();
+          break;
+      }
+    }
+    return songFields;
+  }
+
+  public String getSongName() {
+    return songName;
+  }
+
+  public String getSongArtistFullName() {
+    return songArtistFullName;
+  }
+
+  public String getSongAlbum() {
+    return songAlbum;
+  }
+
+  public Long getSongAmountFavourites() {
+    return songAmountFavourites;
+  }
+
+  public String getId() {
+    return id;
+  }
+}
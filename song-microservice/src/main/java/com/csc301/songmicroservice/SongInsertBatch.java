@@ -0,0 +1,46 @@
+package com.csc301.songmicroservice;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.List;
+
+/**
+ * The result of inserting one batch of songs, e.g.
+ * { "batch" : 0, "inserted" : 999, "rejected" : 1, "errors" : [ ... ] }
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SongInsertBatch {
+
+  private Integer batch;
+  private final long inserted;
+  private final long rejected;
+  private final List<SongInsertError> errors;
+
+  public SongInsertBatch(long inserted, long rejected, List<SongInsertError> errors) {
+    this.inserted = inserted;
+    this.rejected = rejected;
+    this.errors = errors;
+  }
+
+  /**
+   * @return which batch of the request this was, or null if the songs were inserted on their own
+   */
+  public Integer getBatch() {
+    return batch;
+  }
+
+  public void setBatch(Integer batch) {
+    this.batch = batch;
+  }
+
+  public long getInserted() {
+    return inserted;
+  }
+
+  public long getRejected() {
+    return rejected;
+  }
+
+  public List<SongInsertError> getErrors() {
+    return errors;
+  }
+}
@@ -0,0 +1,30 @@
+package com.csc301.songmicroservice;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Why a song couldn't be inserted, e.g. { "index" : 3, "message" : "Empty Song was passed in" }
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SongInsertError {
+
+  private final Long index;
+  private final String message;
+
+  public SongInsertError(Long index, String message) {
+    this.index = index;
+    this.message = message;
+  }
+
+  /**
+   * @return where the song was in the songs that were sent, or null if the error is about all of
+   *     them
+   */
+  public Long getIndex() {
+    return index;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+}
@@ -0,0 +1,39 @@
+package com.csc301.songmicroservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What addSongs inserted, in total and per batch, e.g.
+ * { "inserted" : 1999, "rejected" : 1, "batches" : [ ... ] }
+ */
+public class SongInsertResults {
+
+  private long inserted;
+  private long rejected;
+  private final List<SongInsertBatch> batches = new ArrayList<>();
+
+  /**
+   * Adds the result of the next batch to the totals
+   *
+   * @param batch the result of the batch
+   */
+  public void add(SongInsertBatch batch) {
+    batch.setBatch(batches.size());
+    inserted += batch.getInserted();
+    rejected += batch.getRejected();
+    batches.add(batch);
+  }
+
+  public long getInserted() {
+    return inserted;
+  }
+
+  public long getRejected() {
+    return rejected;
+  }
+
+  public List<SongInsertBatch> getBatches() {
+    return batches;
+  }
+}
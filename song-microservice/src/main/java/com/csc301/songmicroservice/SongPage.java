@@ -0,0 +1,31 @@
+package com.csc301.songmicroservice;
+
+import java.util.List;
+
+/**
+ * One page of songs from getSongs, e.g. { "songs" : [ ... ], "next" : "5d61728193528481fe5a3124" }
+ */
+public class SongPage {
+
+  private final List<Song> songs;
+  private final String next;
+
+  public SongPage(List<Song> songs, String next) {
+    this.songs = songs;
+    this.next = next;
+  }
+
+  /**
+   * @return the songs on the page, ordered by id
+   */
+  public List<Song> getSongs() {
+    return songs;
+  }
+
+  /**
+   * @return the id to pass as "after" for the next page, or null on the last page
+   */
+  public String getNext() {
+    return next;
+  }
+}
@@ -0,0 +1,40 @@
+package com.csc301.songmicroservice;
+
+import java.util.List;
+
+/**
+ * One page of results from searchSongs, e.g. { "songs" : [ ... ], "page" : 0, "queryTimeMs" : 3 }
+ */
+public class SongSearchResults {
+
+  private final List<Song> songs;
+  private final int page;
+  private final long queryTimeMs;
+
+  public SongSearchResults(List<Song> songs, int page, long queryTimeMs) {
+    this.songs = songs;
+    this.page = page;
+    this.queryTimeMs = queryTimeMs;
+  }
+
+  /**
+   * @return the songs on the page, best match first
+   */
+  public List<Song> getSongs() {
+    return songs;
+  }
+
+  /**
+   * @return which page this is, starting at 0
+   */
+  public int getPage() {
+    return page;
+  }
+
+  /**
+   * @return how long the search took in the database
+   */
+  public long getQueryTimeMs() {
+    return queryTimeMs;
+  }
+}
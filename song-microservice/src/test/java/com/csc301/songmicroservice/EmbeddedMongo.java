@@ -0,0 +1,37 @@
+package com.csc301.songmicroservice;
+
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.rules.ExternalResource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * An in-memory MongoDB (mongo-java-server) for the tests of the data access classes. Every test
+ * gets its own empty server
+ */
+public class EmbeddedMongo extends ExternalResource {
+
+  private MongoServer server;
+  private MongoClient client;
+
+  @Override
+  protected void before() {
+    server = new MongoServer(new MemoryBackend());
+    client = new MongoClient(new ServerAddress(server.bind()));
+  }
+
+  @Override
+  protected void after() {
+    client.close();
+    server.shutdownNow();
+  }
+
+  /**
+   * @return a template on a database of the server, for the classes under test
+   */
+  public MongoTemplate newTemplate() {
+    return new MongoTemplate(client, "test");
+  }
+}
@@ -0,0 +1,171 @@
+package com.csc301.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * The write-behind buffer adds up the deltas of each song and writes them in one bulk write,
+ * putting them back if the write fails
+ */
+public class FavouritesAggregatorTest {
+
+  @Rule
+  public final EmbeddedMongo mongo = new EmbeddedMongo();
+
+  private final AtomicInteger failingFlushes = new AtomicInteger();
+  private MongoTemplate db;
+  private MeterRegistry registry;
+  private FavouritesAggregator aggregator;
+
+  @Before
+  public void setUp() {
+    // fails the bulk writes of the next failingFlushes flushes as if the connection was lost
+    db = new MongoTemplate(mongo.newTemplate().getMongoDbFactory()) {
+      @Override
+      public BulkOperations bulkOps(BulkMode mode, Class<?> entityClass) {
+        BulkOperations bulk = super.bulkOps(mode, entityClass);
+        return failingFlushes.getAndDecrement() > 0 ? failOnExecute(bulk) : bulk;
+      }
+    };
+    registry = new SimpleMeterRegistry();
+    FavouritesLeaderboard leaderboard = new FavouritesLeaderboard(registry, false, 100);
+    aggregator = new FavouritesAggregator(db, leaderboard, registry, true, 60000, 10000, 4);
+  }
+
+  @Test
+  public void flushAddsUpTheDeltasOfEachSong() {
+    Song liked = addSong(0);
+    Song unliked = addSong(3);
+    for (int i = 0; i < 3; i++) {
+      aggregator.record(liked._id, 1);
+    }
+    aggregator.record(liked._id, -1);
+    aggregator.record(unliked._id, -2);
+
+    assertEquals(5, gauge("songs.favourites.pending.updates"), 0);
+    assertEquals(2, gauge("songs.favourites.pending.songs"), 0);
+    assertEquals(2, aggregator.flush());
+
+    assertEquals(2, countOf(liked));
+    assertEquals(1, countOf(unliked));
+    assertEquals(0, gauge("songs.favourites.pending.updates"), 0);
+    assertEquals(0, gauge("songs.favourites.pending.songs"), 0);
+    assertEquals(0, aggregator.flush());
+  }
+
+  @Test
+  public void flushDropsCountsThatWouldGoBelowZero() {
+    Song song = addSong(1);
+    aggregator.record(song._id, -2);
+
+    aggregator.flush();
+
+    assertEquals(1, countOf(song));
+    assertEquals(1, registry.get("songs.favourites.dropped").counter().count(), 0);
+  }
+
+  @Test
+  public void failedFlushRecordsTheDeltasAgain() {
+    Song liked = addSong(0);
+    Song unliked = addSong(1);
+    for (int i = 0; i < 3; i++) {
+      aggregator.record(liked._id, 1);
+    }
+    aggregator.record(unliked._id, -1);
+    failingFlushes.set(1);
+
+    try {
+      aggregator.flush();
+      fail("the flush should have failed");
+    } catch (DataAccessResourceFailureException e) {
+      // expected
+    }
+    assertEquals(0, countOf(liked));
+    assertEquals(1, countOf(unliked));
+    assertEquals(2, gauge("songs.favourites.pending.songs"), 0);
+
+    assertEquals(2, aggregator.flush());
+    assertEquals(0, aggregator.flush());
+    assertEquals(3, countOf(liked));
+    assertEquals(0, countOf(unliked));
+  }
+
+  @Test
+  public void flushListenersAreGivenTheWrittenSongs() {
+    Song song = addSong(0);
+    List<Set<ObjectId>> flushed = new ArrayList<>();
+    aggregator.addFlushListener(_ids -> flushed.add(new HashSet<>(_ids)));
+    aggregator.record(song._id, 1);
+
+    aggregator.flush();
+
+    assertEquals(Collections.singletonList(Collections.singleton(song._id)), flushed);
+  }
+
+  @Test
+  public void stopFlushesWhatIsLeft() throws InterruptedException {
+    Song song = addSong(0);
+    aggregator.start();
+    aggregator.record(song._id, 1);
+
+    aggregator.stop();
+
+    assertEquals(1, countOf(song));
+    assertEquals(0, gauge("songs.favourites.pending.updates"), 0);
+  }
+
+  @Test
+  public void stopRetriesAFailedFlush() throws InterruptedException {
+    Song song = addSong(0);
+    aggregator.start();
+    aggregator.record(song._id, 1);
+    failingFlushes.set(2);
+
+    aggregator.stop();
+
+    assertEquals(1, countOf(song));
+  }
+
+  private Song addSong(long favourites) {
+    Song song = new Song("Song", "Artist", "Album");
+    song.setSongAmountFavourites(favourites);
+    return db.insert(song);
+  }
+
+  private long countOf(Song song) {
+    return db.findById(song._id, Song.class).getSongAmountFavourites();
+  }
+
+  private double gauge(String name) {
+    return registry.get(name).gauge().value();
+  }
+
+  private static BulkOperations failOnExecute(BulkOperations bulk) {
+    return (BulkOperations) Proxy.newProxyInstance(BulkOperations.class.getClassLoader(),
+        new Class<?>[] {BulkOperations.class}, (proxy, method, args) -> {
+          if (method.getName().equals("execute")) {
+            throw new DataAccessResourceFailureException("connection lost");
+          }
+          Object result = method.invoke(bulk, args);
+          return result == bulk ? proxy : result;
+        });
+  }
+}
@@ -0,0 +1,134 @@
+package com.csc301.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * The favourite count of a song is changed with a conditional $inc, which never takes it below 0
+ */
+public class SongDalImplFavouritesCountTest {
+
+  @Rule
+  public final EmbeddedMongo mongo = new EmbeddedMongo();
+
+  private MongoTemplate db;
+  private SongDalImpl songDal;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    db = mongo.newTemplate();
+    MeterRegistry registry = new SimpleMeterRegistry();
+    FavouritesLeaderboard leaderboard = new FavouritesLeaderboard(registry, false, 100);
+    FavouritesAggregator aggregator =
+        new FavouritesAggregator(db, leaderboard, registry, false, 1000, 10000, 16);
+    songDal = new SongDalImpl(db, aggregator, leaderboard, 604800);
+    executor = Executors.newFixedThreadPool(8);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void likeThenUnlike() {
+    Song song = addSong(0);
+
+    assertEquals(DbQueryExecResult.QUERY_OK,
+        songDal.updateSongFavouritesCount(song.getId(), false).getdbQueryExecResult());
+    assertEquals(1, countOf(song));
+    assertEquals(DbQueryExecResult.QUERY_OK,
+        songDal.updateSongFavouritesCount(song.getId(), true).getdbQueryExecResult());
+    assertEquals(0, countOf(song));
+  }
+
+  @Test
+  public void unlikeAtZeroIsRejected() {
+    Song song = addSong(0);
+
+    DbQueryStatus status = songDal.updateSongFavouritesCount(song.getId(), true);
+
+    assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC, status.getdbQueryExecResult());
+    assertEquals(0, countOf(song));
+  }
+
+  @Test
+  public void missingSongIsNotFound() {
+    DbQueryStatus status = songDal.updateSongFavouritesCount(new ObjectId().toHexString(), false);
+
+    assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, status.getdbQueryExecResult());
+  }
+
+  @Test
+  public void deletedSongIsNotFound() {
+    Song song = addSong(1);
+    songDal.deleteSongById(song.getId());
+
+    DbQueryStatus status = songDal.updateSongFavouritesCount(song.getId(), true);
+
+    assertEquals(DbQueryExecResult.QUERY_ERROR_NOT_FOUND, status.getdbQueryExecResult());
+  }
+
+  @Test
+  public void concurrentUnlikesStopAtZero() throws Exception {
+    Song song = addSong(5);
+
+    List<Future<DbQueryStatus>> results = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      results.add(executor.submit(() -> songDal.updateSongFavouritesCount(song.getId(), true)));
+    }
+    int ok = 0;
+    for (Future<DbQueryStatus> result : results) {
+      if (result.get(10, TimeUnit.SECONDS).getdbQueryExecResult() == DbQueryExecResult.QUERY_OK) {
+        ok++;
+      }
+    }
+
+    assertEquals(5, ok);
+    assertEquals(0, countOf(song));
+  }
+
+  @Test
+  public void bulkSkipsCountsThatWouldGoBelowZero() {
+    Song liked = addSong(2);
+    Song other = addSong(0);
+    Map<String, Long> deltas = new HashMap<>();
+    deltas.put(liked.getId(), -3L);
+    deltas.put(other.getId(), 1L);
+
+    FavouritesCounts counts =
+        (FavouritesCounts) songDal.updateSongsFavouritesCount(deltas).getData();
+
+    assertEquals(Integer.valueOf(1), counts.getUpdated());
+    assertEquals(1, counts.getSkipped());
+    assertEquals(2, countOf(liked));
+    assertEquals(1, countOf(other));
+  }
+
+  private Song addSong(long favourites) {
+    Song song = new Song("Song", "Artist", "Album");
+    song.setSongAmountFavourites(favourites);
+    return db.insert(song);
+  }
+
+  private long countOf(Song song) {
+    return db.findById(song.getId(), Song.class).getSongAmountFavourites();
+  }
+}
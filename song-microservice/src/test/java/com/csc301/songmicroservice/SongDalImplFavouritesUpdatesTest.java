@@ -0,0 +1,157 @@
+package com.csc301.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * applyFavouritesUpdates applies each keyed update at most once, and returns the decrements that
+ * would take a count below 0 as rejected keys
+ */
+public class SongDalImplFavouritesUpdatesTest {
+
+  @Rule
+  public final EmbeddedMongo mongo = new EmbeddedMongo();
+
+  private MongoTemplate db;
+  private SongDalImpl songDal;
+
+  @Before
+  public void setUp() {
+    db = mongo.newTemplate();
+    MeterRegistry registry = new SimpleMeterRegistry();
+    FavouritesLeaderboard leaderboard = new FavouritesLeaderboard(registry, false, 100);
+    FavouritesAggregator aggregator =
+        new FavouritesAggregator(db, leaderboard, registry, false, 1000, 10000, 16);
+    songDal = new SongDalImpl(db, aggregator, leaderboard, 604800);
+    songDal.initSongDb();
+  }
+
+  @Test
+  public void sendingTheUpdatesAgainChangesNothing() {
+    Song song = addSong(0);
+    List<Map<String, Object>> updates =
+        Arrays.asList(update("k1", song.getId(), 1), update("k2", song.getId(), 1));
+
+    FavouritesCounts first = apply(updates);
+    FavouritesCounts again = apply(updates);
+
+    assertEquals(Integer.valueOf(2), first.getApplied());
+    assertEquals(Integer.valueOf(0), again.getApplied());
+    assertEquals(2, again.getSkipped());
+    assertEquals(2, countOf(song));
+    assertEquals(2, db.count(new Query(), SongDalImpl.APPLIED_UPDATES_COLLECTION));
+    assertEquals(Collections.emptyList(), pendingKeysOf(song));
+  }
+
+  @Test
+  public void decrementBelowZeroIsRejectedUntilItsLikeArrives() {
+    Song song = addSong(0);
+    Map<String, Object> unlike = update("unlike", song.getId(), -1);
+
+    FavouritesCounts rejected = apply(Collections.singletonList(unlike));
+    apply(Collections.singletonList(update("like", song.getId(), 1)));
+    FavouritesCounts retried = apply(Collections.singletonList(unlike));
+
+    assertEquals(Collections.singletonList("unlike"), rejected.getRejectedKeys());
+    assertEquals(Integer.valueOf(1), retried.getApplied());
+    assertEquals(Collections.emptyList(), retried.getRejectedKeys());
+    assertEquals(0, countOf(song));
+  }
+
+  @Test
+  public void keysAreAppliedInTheOrderSent() {
+    Song song = addSong(0);
+
+    FavouritesCounts counts = apply(
+        Arrays.asList(update("like", song.getId(), 1), update("unlike", song.getId(), -1)));
+
+    assertEquals(Integer.valueOf(2), counts.getApplied());
+    assertEquals(0, countOf(song));
+  }
+
+  @Test
+  public void invalidAndRepeatedUpdatesAreSkipped() {
+    Song song = addSong(0);
+    Map<String, Object> noKey = update(null, song.getId(), 1);
+    Map<String, Object> badDelta = update("k3", song.getId(), 1);
+    badDelta.put("delta", "one");
+
+    FavouritesCounts counts = apply(Arrays.asList(update("k1", song.getId(), 1),
+        update("k1", song.getId(), 1), noKey, update("k2", "not an id", 1), badDelta));
+
+    assertEquals(Integer.valueOf(1), counts.getApplied());
+    assertEquals(4, counts.getSkipped());
+    assertEquals(1, countOf(song));
+  }
+
+  @Test
+  public void missingSongIsNotRejected() {
+    FavouritesCounts counts =
+        apply(Collections.singletonList(update("k1", new ObjectId().toHexString(), -1)));
+
+    assertEquals(Integer.valueOf(0), counts.getApplied());
+    assertEquals(1, counts.getSkipped());
+    assertEquals(Collections.emptyList(), counts.getRejectedKeys());
+  }
+
+  @Test
+  public void keyLeftPendingByAnEarlierCallIsFinished() {
+    // an earlier call wrote the $inc and the key, then stopped before marking it applied
+    Song song = addSong(1);
+    db.updateFirst(new Query(Criteria.where("_id").is(song._id)),
+        new Update().push("pendingFavouritesUpdates", "k1"), Song.class);
+
+    FavouritesCounts counts = apply(Collections.singletonList(update("k1", song.getId(), 1)));
+
+    assertEquals(Integer.valueOf(0), counts.getApplied());
+    assertEquals(Collections.emptyList(), counts.getRejectedKeys());
+    assertEquals(1, countOf(song));
+    assertEquals(1, db.count(new Query(Criteria.where("key").is("k1")),
+        SongDalImpl.APPLIED_UPDATES_COLLECTION));
+    assertEquals(Collections.emptyList(), pendingKeysOf(song));
+  }
+
+  private Song addSong(long favourites) {
+    Song song = new Song("Song", "Artist", "Album");
+    song.setSongAmountFavourites(favourites);
+    return db.insert(song);
+  }
+
+  private long countOf(Song song) {
+    return db.findById(song._id, Song.class).getSongAmountFavourites();
+  }
+
+  private Object pendingKeysOf(Song song) {
+    return db.findById(song._id, Document.class, "songs").get("pendingFavouritesUpdates");
+  }
+
+  private FavouritesCounts apply(List<Map<String, Object>> updates) {
+    DbQueryStatus status = songDal.applyFavouritesUpdates(updates);
+    assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+    return (FavouritesCounts) status.getData();
+  }
+
+  private static Map<String, Object> update(String key, String songId, long delta) {
+    Map<String, Object> update = new HashMap<>();
+    update.put("key", key);
+    update.put("songId", songId);
+    update.put("delta", delta);
+    return update;
+  }
+}
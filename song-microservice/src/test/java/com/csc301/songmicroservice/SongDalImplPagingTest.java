@@ -0,0 +1,132 @@
+package com.csc301.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * findSongs pages through the songs by id, each page continuing after the last id of the one before
+ */
+public class SongDalImplPagingTest {
+
+  @Rule
+  public final EmbeddedMongo mongo = new EmbeddedMongo();
+
+  private MongoTemplate db;
+  private SongDalImpl songDal;
+
+  @Before
+  public void setUp() {
+    db = mongo.newTemplate();
+    MeterRegistry registry = new SimpleMeterRegistry();
+    FavouritesLeaderboard leaderboard = new FavouritesLeaderboard(registry, false, 100);
+    FavouritesAggregator aggregator =
+        new FavouritesAggregator(db, leaderboard, registry, false, 1000, 10000, 16);
+    songDal = new SongDalImpl(db, aggregator, leaderboard, 604800);
+  }
+
+  @Test
+  public void pagesEndWithTheLastSong() {
+    List<String> songIds = addSongs("Artist", 5);
+
+    SongPage first = page(null, 2, null);
+    SongPage second = page(first.getNext(), 2, null);
+    SongPage last = page(second.getNext(), 2, null);
+
+    assertEquals(songIds.subList(0, 2), idsOf(first));
+    assertEquals(songIds.get(1), first.getNext());
+    assertEquals(songIds.subList(2, 4), idsOf(second));
+    assertEquals(songIds.get(3), second.getNext());
+    assertEquals(songIds.subList(4, 5), idsOf(last));
+    assertNull(last.getNext());
+  }
+
+  @Test
+  public void fullLastPageHasNoNext() {
+    List<String> songIds = addSongs("Artist", 4);
+
+    SongPage first = page(null, 2, null);
+    SongPage last = page(first.getNext(), 2, null);
+
+    assertEquals(songIds.subList(2, 4), idsOf(last));
+    assertNull(last.getNext());
+  }
+
+  @Test
+  public void pageAfterTheLastSongIsEmpty() {
+    List<String> songIds = addSongs("Artist", 2);
+
+    SongPage page = page(songIds.get(1), 2, null);
+
+    assertEquals(0, page.getSongs().size());
+    assertNull(page.getNext());
+  }
+
+  @Test
+  public void deletedSongsAreSkipped() {
+    List<String> songIds = addSongs("Artist", 3);
+    songDal.deleteSongById(songIds.get(1));
+
+    SongPage page = page(null, 2, null);
+
+    assertEquals(songIds.get(0), idsOf(page).get(0));
+    assertEquals(songIds.get(2), idsOf(page).get(1));
+    assertNull(page.getNext());
+  }
+
+  @Test
+  public void pagesOnlyHaveSongsByTheArtist() {
+    List<String> songIds = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      songIds.addAll(addSongs("Artist", 1));
+      addSongs("Other Artist", 1);
+    }
+
+    SongPage first = page(null, 2, "Artist");
+    SongPage last = page(first.getNext(), 2, "Artist");
+
+    assertEquals(songIds.subList(0, 2), idsOf(first));
+    assertEquals(songIds.subList(2, 3), idsOf(last));
+    assertNull(last.getNext());
+  }
+
+  @Test
+  public void invalidLimitOrAfterIsAnError() {
+    assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC,
+        songDal.findSongs(null, 0, null, null).getdbQueryExecResult());
+    assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC,
+        songDal.findSongs(null, SongDalImpl.MAX_PAGE_SIZE + 1, null, null).getdbQueryExecResult());
+    assertEquals(DbQueryExecResult.QUERY_ERROR_GENERIC,
+        songDal.findSongs("not an id", 10, null, null).getdbQueryExecResult());
+  }
+
+  private List<String> addSongs(String artist, int count) {
+    List<String> songIds = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      songIds.add(db.insert(new Song("Song " + i, artist, "Album")).getId());
+    }
+    return songIds;
+  }
+
+  private SongPage page(String after, int limit, String artist) {
+    DbQueryStatus status = songDal.findSongs(after, limit, artist, null);
+    assertEquals(DbQueryExecResult.QUERY_OK, status.getdbQueryExecResult());
+    return (SongPage) status.getData();
+  }
+
+  private static List<String> idsOf(SongPage page) {
+    List<String> songIds = new ArrayList<>();
+    for (Song song : page.getSongs()) {
+      songIds.add(song.getId());
+    }
+    return songIds;
+  }
+}
@@ -0,0 +1,139 @@
+package com.csc301.songmicroservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collections;
+import java.util.Date;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * The sweeper removes a deleted song for good once the Profile Microservice dropped it, and backs
+ * off the songs it couldn't drop
+ */
+public class SongDeletionSweeperTest {
+
+  private static final String PROFILE_SERVICE_URL = "http://profile";
+
+  @Rule
+  public final EmbeddedMongo mongo = new EmbeddedMongo();
+
+  private MongoTemplate db;
+  private SongDalImpl songDal;
+  private MockRestServiceServer profileService;
+  private SongDeletionSweeper sweeper;
+
+  @Before
+  public void setUp() {
+    db = mongo.newTemplate();
+    MeterRegistry registry = new SimpleMeterRegistry();
+    FavouritesLeaderboard leaderboard = new FavouritesLeaderboard(registry, false, 100);
+    FavouritesAggregator aggregator =
+        new FavouritesAggregator(db, leaderboard, registry, false, 1000, 10000, 16);
+    songDal = new SongDalImpl(db, aggregator, leaderboard, 604800);
+    RestTemplate restTemplate = new RestTemplate();
+    profileService = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+    // one song per batch, and no sweep but the ones asked for
+    sweeper = new SongDeletionSweeper(songDal, restTemplate, registry, PROFILE_SERVICE_URL, 600000,
+        1, 1000, 4000);
+  }
+
+  @After
+  public void tearDown() {
+    sweeper.stop();
+  }
+
+  @Test
+  public void droppedSongIsPurgedAndTheOtherPutOff() throws InterruptedException {
+    String dropped = addDeletedSong();
+    String failing = addDeletedSong();
+    profileService.expect(requestTo(deleteUri(dropped))).andExpect(method(HttpMethod.PUT))
+        .andRespond(withSuccess("{\"status\":\"OK\"}", MediaType.APPLICATION_JSON));
+    profileService.expect(requestTo(deleteUri(failing))).andExpect(method(HttpMethod.PUT))
+        .andRespond(withServerError());
+
+    sweeper.start();
+    sweeper.sweepSoon();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (deletionAttemptsOf(failing) == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+
+    profileService.verify();
+    assertFalse(exists(dropped));
+    assertTrue(exists(failing));
+    assertEquals(Integer.valueOf(1), deletionAttemptsOf(failing));
+    assertTrue(songDal.findDeletedSongIds(10).isEmpty());
+  }
+
+  @Test
+  public void backoffDoublesUpToTheMost() {
+    String songId = addDeletedSong();
+
+    assertEquals(1000, songDal.postponeDeletedSong(songId, 1000, 4000));
+    assertEquals(2000, songDal.postponeDeletedSong(songId, 1000, 4000));
+    assertEquals(4000, songDal.postponeDeletedSong(songId, 1000, 4000));
+    assertEquals(4000, songDal.postponeDeletedSong(songId, 1000, 4000));
+    Date nextAttemptAt = document(songId).getDate("nextDeletionAttemptAt");
+    assertTrue(nextAttemptAt.after(new Date()));
+  }
+
+  @Test
+  public void songThatIsDueAgainIsFound() {
+    String songId = addDeletedSong();
+    songDal.postponeDeletedSong(songId, 1000, 4000);
+
+    assertTrue(songDal.findDeletedSongIds(10).isEmpty());
+    db.getCollection("songs").updateOne(new Document("_id", document(songId).get("_id")),
+        new Document("$set", new Document("nextDeletionAttemptAt", new Date(0))));
+    assertEquals(Collections.singletonList(songId), songDal.findDeletedSongIds(10));
+  }
+
+  @Test
+  public void songThatIsGoneIsNotPutOff() {
+    String songId = addDeletedSong();
+    assertTrue(songDal.purgeDeletedSong(songId));
+
+    assertEquals(-1, songDal.postponeDeletedSong(songId, 1000, 4000));
+  }
+
+  private String addDeletedSong() {
+    String songId = db.insert(new Song("Song", "Artist", "Album")).getId();
+    assertEquals(DbQueryExecResult.QUERY_OK,
+        songDal.deleteSongById(songId).getdbQueryExecResult());
+    return songId;
+  }
+
+  private static String deleteUri(String songId) {
+    return PROFILE_SERVICE_URL + "/deleteAllSongsFromDb/" + songId;
+  }
+
+  private boolean exists(String songId) {
+    return document(songId) != null;
+  }
+
+  private Integer deletionAttemptsOf(String songId) {
+    Document song = document(songId);
+    return song == null ? null : song.getInteger("deletionAttempts");
+  }
+
+  private Document document(String songId) {
+    return db.findById(songId, Document.class, "songs");
+  }
+}